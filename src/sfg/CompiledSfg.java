@@ -0,0 +1,383 @@
+package sfg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled snapshot of the SFG topology, nodes get dense int ids and
+ * edges are stored in compressed sparse rows: edges leaving node i are
+ * offsets[i]..offsets[i + 1] - 1 of the targets/gains arrays.
+ * The reversed edges and the strongly connected components are compiled
+ * along, so searches running in parallel only ever read them.
+ */
+class CompiledSfg {
+    private Node[] nodes = null;
+    private Map<Node, Integer> nodeIndex = null;
+    private int[] offsets = null;
+    private int[] sources = null;
+    private int[] targets = null;
+    private double[] gains = null;
+    private Edge[] edges = null;
+    private int[] components = null;
+    private int[] reverseOffsets = null;
+    private int[] reverseSources = null;
+    private CompiledSfg original = null;
+    private int[][] chains = null;
+
+    /**
+     * Compiles the SFG, edges gains are copied at this point.
+     *
+     * @param nodeList nodes of the SFG, ids follow this order.
+     * @param adj      adjacency list of the SFG.
+     */
+    CompiledSfg(final List<Node> nodeList, final Map<Node, List<Edge>> adj) {
+        this.nodes = nodeList.toArray(new Node[nodeList.size()]);
+        this.nodeIndex = new HashMap<>();
+        for (int i = 0; i < this.nodes.length; i++)
+            this.nodeIndex.put(this.nodes[i], i);
+        this.offsets = new int[this.nodes.length + 1];
+        for (int i = 0; i < this.nodes.length; i++)
+            this.offsets[i + 1] = this.offsets[i] + adj.get(this.nodes[i]).size();
+        this.sources = new int[this.offsets[this.nodes.length]];
+        this.targets = new int[this.sources.length];
+        this.gains = new double[this.targets.length];
+        this.edges = new Edge[this.targets.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            int edge = this.offsets[i];
+            for (Edge adjEdge : adj.get(this.nodes[i])) {
+                this.sources[edge] = i;
+                this.targets[edge] = this.nodeIndex.get(adjEdge.getDest());
+                this.gains[edge] = adjEdge.getGain();
+                this.edges[edge] = adjEdge;
+                edge++;
+            }
+        }
+        reverse();
+        findComponents();
+    }
+
+    private CompiledSfg() {
+    }
+
+    /**
+     * Creates a smaller copy of this SFG with its pass through nodes (one
+     * edge in, one edge out, no self loop) collapsed into the edges around
+     * them, so a chain of edges becomes a single edge.
+     * Any path or loop through a pass through node also goes through the
+     * node feeding it, so paths, loops and which of them touch stay the
+     * same once chains are expanded back.
+     *
+     * @param start id of the starting node, never collapsed.
+     * @param end   id of the ending node, never collapsed.
+     * @return reduced SFG, reduced edges map to chains of this SFG's edges.
+     */
+    CompiledSfg reduce(final int start, final int end) {
+        List<int[]> edgeChains = new ArrayList<>();
+        List<Integer> edgeSources = new ArrayList<>();
+        List<Integer> edgeTargets = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        List<List<Integer>> in = new ArrayList<>();
+        for (int i = 0; i < this.nodes.length; i++) {
+            out.add(new ArrayList<>());
+            in.add(new ArrayList<>());
+        }
+        for (int edge = 0; edge < this.targets.length; edge++) {
+            edgeChains.add(new int[]{edge});
+            edgeSources.add(this.sources[edge]);
+            edgeTargets.add(this.targets[edge]);
+            out.get(this.sources[edge]).add(edge);
+            in.get(this.targets[edge]).add(edge);
+        }
+        boolean[] removed = new boolean[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            if (i == start || i == end || in.get(i).size() != 1
+                    || out.get(i).size() != 1)
+                continue;
+            int inEdge = in.get(i).get(0);
+            int outEdge = out.get(i).get(0);
+            int src = edgeSources.get(inEdge);
+            int dest = edgeTargets.get(outEdge);
+            if (src == i)
+                continue;
+            int[] chain = Arrays.copyOf(edgeChains.get(inEdge),
+                    edgeChains.get(inEdge).length
+                            + edgeChains.get(outEdge).length);
+            System.arraycopy(edgeChains.get(outEdge), 0, chain,
+                    edgeChains.get(inEdge).length,
+                    edgeChains.get(outEdge).length);
+            int merged = edgeChains.size();
+            edgeChains.add(chain);
+            edgeSources.add(src);
+            edgeTargets.add(dest);
+            out.get(src).set(out.get(src).indexOf(inEdge), merged);
+            in.get(dest).set(in.get(dest).indexOf(outEdge), merged);
+            removed[i] = true;
+        }
+        CompiledSfg ret = new CompiledSfg();
+        ret.original = this;
+        int[] ids = new int[this.nodes.length];
+        List<Node> nodeList = new ArrayList<>();
+        for (int i = 0; i < this.nodes.length; i++)
+            if (!removed[i]) {
+                ids[i] = nodeList.size();
+                nodeList.add(this.nodes[i]);
+            }
+        ret.nodes = nodeList.toArray(new Node[nodeList.size()]);
+        ret.nodeIndex = new HashMap<>();
+        for (int i = 0; i < ret.nodes.length; i++)
+            ret.nodeIndex.put(ret.nodes[i], i);
+        ret.offsets = new int[ret.nodes.length + 1];
+        List<int[]> chains = new ArrayList<>();
+        for (int i = 0; i < this.nodes.length; i++)
+            if (!removed[i]) {
+                ret.offsets[ids[i] + 1] = ret.offsets[ids[i]]
+                        + out.get(i).size();
+                for (int edge : out.get(i))
+                    chains.add(edgeChains.get(edge));
+            }
+        ret.chains = chains.toArray(new int[chains.size()][]);
+        ret.sources = new int[ret.chains.length];
+        ret.targets = new int[ret.chains.length];
+        ret.gains = new double[ret.chains.length];
+        for (int edge = 0; edge < ret.chains.length; edge++) {
+            int[] chain = ret.chains[edge];
+            ret.sources[edge] = ids[this.sources[chain[0]]];
+            ret.targets[edge] = ids[this.targets[chain[chain.length - 1]]];
+        }
+        ret.refreshGains();
+        ret.reverse();
+        ret.findComponents();
+        return ret;
+    }
+
+    int size() {
+        return this.nodes.length;
+    }
+
+    int getIndex(final Node node) {
+        return this.nodeIndex.get(node);
+    }
+
+    Map<Node, Integer> getNodeIndex() {
+        return this.nodeIndex;
+    }
+
+    Node getNode(final int node) {
+        return this.nodes[node];
+    }
+
+    int[] getOffsets() {
+        return this.offsets;
+    }
+
+    /**
+     * Copies the edges gains again, the topology has to be unchanged since
+     * compiling.
+     */
+    void refreshGains() {
+        if (this.original == null) {
+            for (int i = 0; i < this.edges.length; i++)
+                this.gains[i] = this.edges[i].getGain();
+            return;
+        }
+        //Reduced gains follow the original's, which must be refreshed first.
+        double[] originalGains = this.original.getGains();
+        for (int i = 0; i < this.chains.length; i++) {
+            this.gains[i] = 1;
+            for (int edge : this.chains[i])
+                this.gains[i] *= originalGains[edge];
+        }
+    }
+
+    /**
+     * Gets the SFG this one was reduced from.
+     *
+     * @return original SFG, null if this one isn't reduced.
+     */
+    CompiledSfg getOriginal() {
+        return this.original;
+    }
+
+    /**
+     * Gets the original edges a reduced edge stands for.
+     *
+     * @param edge id of the reduced edge.
+     * @return ids of the original edges, in order.
+     */
+    int[] getChain(final int edge) {
+        return this.chains[edge];
+    }
+
+    int[] getSources() {
+        return this.sources;
+    }
+
+    int[] getTargets() {
+        return this.targets;
+    }
+
+    double[] getGains() {
+        return this.gains;
+    }
+
+    /**
+     * Gets the offsets of the reversed graph, edges entering node i are
+     * reverseOffsets[i]..reverseOffsets[i + 1] - 1 of the reverse sources.
+     *
+     * @return reverse offsets per node id.
+     */
+    int[] getReverseOffsets() {
+        return this.reverseOffsets;
+    }
+
+    int[] getReverseSources() {
+        return this.reverseSources;
+    }
+
+    /**
+     * Marks the nodes reachable from a node, including itself.
+     *
+     * @param node id of the node.
+     * @return marks per node id.
+     */
+    boolean[] getReachable(final int node) {
+        return mark(node, this.offsets, this.targets);
+    }
+
+    /**
+     * Marks the nodes a node is reachable from, including itself.
+     *
+     * @param node id of the node.
+     * @return marks per node id.
+     */
+    boolean[] getReaching(final int node) {
+        return mark(node, getReverseOffsets(), getReverseSources());
+    }
+
+    /**
+     * Marks the nodes on some route from start to end, only they and the
+     * edges between them affect the gain of the signal.
+     *
+     * @param start id of the starting node.
+     * @param end   id of the ending node.
+     * @return marks per node id, null if end can't be reached from start.
+     */
+    boolean[] getRoute(final int start, final int end) {
+        boolean[] ret = getReachable(start);
+        if (!ret[end])
+            return null;
+        boolean[] toEnd = getReaching(end);
+        for (int i = 0; i < ret.length; i++)
+            ret[i] &= toEnd[i];
+        return ret;
+    }
+
+    /**
+     * Compiles the reversed edges out of the forward ones.
+     */
+    private void reverse() {
+        this.reverseOffsets = new int[this.nodes.length + 1];
+        for (int target : this.targets)
+            this.reverseOffsets[target + 1]++;
+        for (int i = 0; i < this.nodes.length; i++)
+            this.reverseOffsets[i + 1] += this.reverseOffsets[i];
+        this.reverseSources = new int[this.targets.length];
+        int[] next = Arrays.copyOf(this.reverseOffsets, this.nodes.length);
+        for (int edge = 0; edge < this.targets.length; edge++)
+            this.reverseSources[next[this.targets[edge]]++] =
+                    this.sources[edge];
+    }
+
+    private boolean[] mark(final int node, final int[] offsets,
+                           final int[] targets) {
+        boolean[] ret = new boolean[this.nodes.length];
+        int[] queue = new int[this.nodes.length];
+        int head = 0;
+        int tail = 0;
+        ret[node] = true;
+        queue[tail++] = node;
+        while (head < tail) {
+            int curr = queue[head++];
+            for (int i = offsets[curr]; i < offsets[curr + 1]; i++)
+                if (!ret[targets[i]]) {
+                    ret[targets[i]] = true;
+                    queue[tail++] = targets[i];
+                }
+        }
+        return ret;
+    }
+
+    Edge getEdge(final int edge) {
+        return this.edges[edge];
+    }
+
+    /**
+     * Gets the strongly connected component of every node.
+     *
+     * @return component id per node id.
+     */
+    int[] getComponents() {
+        return this.components;
+    }
+
+    /**
+     * Finds the strongly connected components using Tarjan's algorithm,
+     * the depth first search keeps its own stack of nodes and their next
+     * edges so long chains don't overflow the call stack.
+     */
+    private void findComponents() {
+        this.components = new int[this.nodes.length];
+        int[] index = new int[this.nodes.length];
+        int[] lowLink = new int[this.nodes.length];
+        int[] stack = new int[this.nodes.length];
+        boolean[] onStack = new boolean[this.nodes.length];
+        int[] callStack = new int[this.nodes.length];
+        int[] nextEdge = new int[this.nodes.length];
+        int nextIndex = 0;
+        int stackSize = 0;
+        int component = 0;
+        Arrays.fill(index, -1);
+        for (int i = 0; i < this.nodes.length; i++) {
+            if (index[i] != -1)
+                continue;
+            int depth = 0;
+            callStack[depth++] = i;
+            index[i] = lowLink[i] = nextIndex++;
+            nextEdge[i] = this.offsets[i];
+            stack[stackSize++] = i;
+            onStack[i] = true;
+            while (depth > 0) {
+                int curr = callStack[depth - 1];
+                if (nextEdge[curr] < this.offsets[curr + 1]) {
+                    int next = this.targets[nextEdge[curr]++];
+                    if (index[next] == -1) {
+                        index[next] = lowLink[next] = nextIndex++;
+                        nextEdge[next] = this.offsets[next];
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[depth++] = next;
+                    } else if (onStack[next])
+                        lowLink[curr] = Math.min(lowLink[curr], index[next]);
+                    continue;
+                }
+                if (lowLink[curr] == index[curr]) {
+                    int node;
+                    do {
+                        node = stack[--stackSize];
+                        onStack[node] = false;
+                        this.components[node] = component;
+                    } while (node != curr);
+                    component++;
+                }
+                depth--;
+                if (depth > 0) {
+                    int parent = callStack[depth - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[curr]);
+                }
+            }
+        }
+    }
+}
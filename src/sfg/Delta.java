@@ -3,22 +3,34 @@ package sfg;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class Delta {
     private List<LoopGroupContainer> containerList = null;
+    private List<Delta> factorList = null;
+    private List<LoopGroupContainer> expandedList = null;
     private double gain;
+    private double factorsGain;
 
     public Delta() {
         containerList = new ArrayList<>();
+        factorList = new ArrayList<>();
         this.gain = 1;
+        this.factorsGain = 1;
     }
 
     public void clear() {
+        this.expandedList = null;
         this.containerList.clear();
+        this.factorList.clear();
         this.gain = 1;
+        this.factorsGain = 1;
     }
 
     public void addContainers(final LoopGroupContainer... containers) {
+        this.expandedList = null;
         this.containerList.addAll(Arrays.asList(containers));
         for (LoopGroupContainer container : containers) {
             this.gain += container.getDegree() % 2 == 0 ? container.getGain()
@@ -26,12 +38,125 @@ public class Delta {
         }
     }
 
+    /**
+     * Adds the summed gains of non touching loop groups per degree, without
+     * keeping the groups themselves.
+     *
+     * @param degreeGains index k is the summed gain of groups of k loops.
+     */
+    void addDegreeGains(final double[] degreeGains) {
+        for (int i = 1; i < degreeGains.length; i++)
+            this.gain += i % 2 == 0 ? degreeGains[i] : -1 * degreeGains[i];
+    }
+
+    /**
+     * Multiplies this delta by other deltas, used when loops split into
+     * groups that never touch each other (e.g. different strongly connected
+     * components), so each group's delta can be computed on its own.
+     *
+     * @param factors deltas to be multiplied by.
+     */
+    public void addFactors(final Delta... factors) {
+        this.expandedList = null;
+        this.factorList.addAll(Arrays.asList(factors));
+        for (Delta factor : factors)
+            this.factorsGain *= factor.getGain();
+    }
+
+    public List<Delta> getFactorList() {
+        return this.factorList;
+    }
+
+    /**
+     * Gets the non touching loop containers ordered by degree, combinations
+     * across factors are expanded on the first call and kept until the
+     * delta changes.
+     *
+     * @return list of containers.
+     */
     public List<LoopGroupContainer> getContainerList() {
-        return this.containerList;
+        if (this.factorList.isEmpty())
+            return this.containerList;
+        if (this.expandedList == null) {
+            List<LoopGroupContainer> ret = this.containerList;
+            for (Delta factor : this.factorList)
+                ret = multiply(ret, factor.getContainerList());
+            this.expandedList = ret;
+        }
+        return this.expandedList;
     }
 
     public double getGain() {
-        return this.gain;
+        return this.gain * this.factorsGain;
+    }
+
+    /**
+     * Drops every group having any of some loops, containers left empty are
+     * removed.
+     *
+     * @param loops loops to be dropped.
+     */
+    void removeLoops(final Set<Path> loops) {
+        this.expandedList = null;
+        for (LoopGroupContainer container : this.containerList)
+            container.removeLoops(loops);
+        this.containerList.removeIf(LoopGroupContainer::empty);
+        for (Delta factor : this.factorList)
+            factor.removeLoops(loops);
+        refresh();
+    }
+
+    /**
+     * Recomputes the gain from the current gains of the containers and
+     * factors, degree gains added without their groups are dropped, so it's
+     * only meant for deltas built of containers.
+     */
+    void refresh() {
+        this.expandedList = null;
+        this.gain = 1;
+        for (LoopGroupContainer container : this.containerList) {
+            container.refresh();
+            this.gain += container.getDegree() % 2 == 0 ? container.getGain()
+                    : -1 * container.getGain();
+        }
+        this.factorsGain = 1;
+        for (Delta factor : this.factorList) {
+            factor.refresh();
+            this.factorsGain *= factor.getGain();
+        }
+    }
+
+    private List<LoopGroupContainer> multiply(final List<LoopGroupContainer> a,
+                                              final List<LoopGroupContainer> b) {
+        Map<Integer, LoopGroupContainer> byDegree = new TreeMap<>();
+        for (LoopGroupContainer container : a)
+            getContainer(byDegree, container.getDegree())
+                    .addLoopGroups(toArray(container.getGroupList()));
+        for (LoopGroupContainer container : b)
+            getContainer(byDegree, container.getDegree())
+                    .addLoopGroups(toArray(container.getGroupList()));
+        for (LoopGroupContainer containerA : a)
+            for (LoopGroupContainer containerB : b) {
+                LoopGroupContainer ret = getContainer(byDegree,
+                        containerA.getDegree() + containerB.getDegree());
+                for (LoopGroup groupA : containerA.getGroupList())
+                    for (LoopGroup groupB : containerB.getGroupList()) {
+                        LoopGroup group = (LoopGroup) groupA.clone();
+                        group.addLoops(groupB.getLoopList().toArray(
+                                new Path[groupB.getLoopList().size()]));
+                        ret.addLoopGroups(group);
+                    }
+            }
+        return new ArrayList<>(byDegree.values());
+    }
+
+    private LoopGroupContainer getContainer(final Map<Integer,
+            LoopGroupContainer> byDegree, final int degree) {
+        return byDegree.computeIfAbsent(degree, LoopGroupContainer::new);
+    }
+
+    private LoopGroup[] toArray(final List<LoopGroup> groupList) {
+        return groupList.toArray(new LoopGroup[groupList.size()]);
     }
 
     @Override
@@ -39,6 +164,10 @@ public class Delta {
         Delta clone = new Delta();
         for (LoopGroupContainer container : this.containerList)
             clone.addContainers((LoopGroupContainer) container.clone());
+        for (Delta factor : this.factorList)
+            clone.addFactors((Delta) factor.clone());
+        //Keeps degree gains added without their groups.
+        clone.gain = this.gain;
         return clone;
     }
-}
\ No newline at end of file
+}
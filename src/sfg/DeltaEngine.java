@@ -0,0 +1,25 @@
+package sfg;
+
+/**
+ * The ways a {@link Sfg} can compute its delta and the forward paths
+ * deltas.
+ */
+public enum DeltaEngine {
+    /**
+     * Enumerates every group of non touching loops per degree, the groups
+     * are kept in the resulting {@link Delta}.
+     */
+    NON_TOUCHING_GROUPS,
+    /**
+     * Sums non touching loop groups as independent sets of the loops
+     * touching graph in a single memoized pass, only gains are kept in the
+     * resulting {@link Delta}.
+     */
+    INDEPENDENT_SETS,
+    /**
+     * Sums gains like {@link #INDEPENDENT_SETS}, but keeps the groups as lazy
+     * views which are only enumerated when iterated, so heap use doesn't
+     * grow with the number of combinations.
+     */
+    LAZY_NON_TOUCHING_GROUPS
+}
@@ -7,6 +7,7 @@ public class Edge {
     private Node src = null;
     private Node dest = null;
     private double gain = 0.0;
+    private RationalFunction transferFunction = null;
 
     /**
      * Creates a new edge.
@@ -59,4 +60,18 @@ public class Edge {
     public void setGain(final double gain) {
         this.gain = gain;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the gain of the edge as a function of s, used by frequency
+     * sweeps.
+     *
+     * @return transfer function, null if the gain doesn't depend on s.
+     */
+    public RationalFunction getTransferFunction() {
+        return transferFunction;
+    }
+
+    public void setTransferFunction(final RationalFunction transferFunction) {
+        this.transferFunction = transferFunction;
+    }
+}
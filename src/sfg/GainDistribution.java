@@ -0,0 +1,41 @@
+package sfg;
+
+import java.util.Random;
+
+/**
+ * A representation of how the gain of an edge is spread because of
+ * tolerances, used to draw gains for tolerance analysis. Samples may be
+ * drawn from many threads at once, each with its own random generator, so
+ * implementations shouldn't keep state of their own.
+ */
+public interface GainDistribution {
+    /**
+     * Draws a gain.
+     *
+     * @param random random generator to draw with.
+     * @return drawn gain.
+     */
+    double sample(Random random);
+
+    /**
+     * Gets a normal distribution.
+     *
+     * @param mean      mean gain.
+     * @param deviation standard deviation of the gain.
+     * @return distribution.
+     */
+    static GainDistribution normal(final double mean, final double deviation) {
+        return random -> mean + deviation * random.nextGaussian();
+    }
+
+    /**
+     * Gets a uniform distribution.
+     *
+     * @param low  least gain.
+     * @param high greatest gain.
+     * @return distribution.
+     */
+    static GainDistribution uniform(final double low, final double high) {
+        return random -> low + (high - low) * random.nextDouble();
+    }
+}
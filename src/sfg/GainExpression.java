@@ -0,0 +1,515 @@
+package sfg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A representation of the overall gain of a signal as an expression over the
+ * gains of the SFG's edges, compiled once from the forward paths and loops so
+ * it can be evaluated for many sets of gains without solving again.
+ * The expression is a DAG of operations where equal subexpressions are
+ * shared: path products share their common prefixes, and the deltas of
+ * every forward path are built from the same memoized loop sets as delta
+ * itself. Operations are kept in primitive arrays in evaluation order.
+ */
+public class GainExpression {
+    static final int VARIABLE = 0;
+    static final int CONSTANT = 1;
+    static final int ADD = 2;
+    static final int SUBTRACT = 3;
+    static final int MULTIPLY = 4;
+    static final int DIVIDE = 5;
+    /**
+     * Most values kept per batch, the number of gain sets evaluated at once
+     * shrinks as the expression grows.
+     */
+    private static final int BATCH_VALUES = 1 << 20;
+    private static final int MAX_BATCH = 256;
+
+    private Edge[] edges = null;
+    private int[] ops = null;
+    private int[] left = null;
+    private int[] right = null;
+    private double[] constants = null;
+    private int size = 0;
+    private int root = 0;
+    private Map<Long, Integer> ids = null;
+    private Map<BitSet, Integer> deltas = null;
+    private TouchMatrix touchMatrix = null;
+    private int[] loopGains = null;
+
+    /**
+     * Compiles the overall gain of the solver's last signal.
+     *
+     * @param graph  compiled SFG, its edges are the variables.
+     * @param solver solver which found the signal's forward paths.
+     */
+    GainExpression(final CompiledSfg graph, final GainSolver solver) {
+        int edgeCount = graph.getTargets().length;
+        this.edges = new Edge[edgeCount];
+        for (int i = 0; i < edgeCount; i++)
+            this.edges[i] = graph.getEdge(i);
+        this.ops = new int[64];
+        this.left = new int[64];
+        this.right = new int[64];
+        this.constants = new double[]{0, 1};
+        this.ids = new HashMap<>();
+        this.deltas = new HashMap<>();
+        this.touchMatrix = solver.getTouchMatrix();
+        PathArena loops = solver.getLoops();
+        this.loopGains = new int[loops.size()];
+        for (int i = 0; i < loops.size(); i++)
+            this.loopGains[i] = getProduct(loops, i);
+        PathArena forwardPaths = solver.getForwardPaths();
+        int sum = add(CONSTANT, 0, 0);
+        for (int i = 0; i < forwardPaths.size(); i++)
+            sum = add(ADD, sum, add(MULTIPLY, getProduct(forwardPaths, i),
+                    getDelta(solver.getNonTouching(i))));
+        BitSet all = new BitSet();
+        all.set(0, loops.size());
+        this.root = add(DIVIDE, sum, getDelta(all));
+        //Only needed while compiling.
+        this.ids = null;
+        this.deltas = null;
+        this.touchMatrix = null;
+        this.loopGains = null;
+    }
+
+    /**
+     * Gets the edges whose gains are the variables of the expression.
+     *
+     * @return edges, variable i is the gain of edge i.
+     */
+    public List<Edge> getEdges() {
+        return new ArrayList<>(Arrays.asList(this.edges));
+    }
+
+    /**
+     * Gets the number of operations of the expression.
+     *
+     * @return number of operations.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Evaluates the expression at the current gains of the edges.
+     *
+     * @return overall gain.
+     */
+    public double evaluate() {
+        double[] gains = new double[this.edges.length];
+        for (int i = 0; i < gains.length; i++)
+            gains[i] = this.edges[i].getGain();
+        return evaluate(gains, 1)[0];
+    }
+
+    /**
+     * Evaluates the expression for a batch of gain sets laid out column
+     * wise, the gain of edge i in set j is at gains[i * count + j].
+     *
+     * @param gains gains of every edge for every set.
+     * @param count number of sets.
+     * @return overall gain of every set.
+     */
+    public double[] evaluate(final double[] gains, final int count) {
+        if (gains.length < this.edges.length * count)
+            throw new IllegalArgumentException("Expected " + this.edges.length
+                    * count + " gains, got " + gains.length + ".");
+        double[] ret = new double[count];
+        int batch = Math.max(1, Math.min(MAX_BATCH, BATCH_VALUES / this.size));
+        double[] values = new double[this.size * batch];
+        for (int from = 0; from < count; from += batch) {
+            int n = Math.min(batch, count - from);
+            for (int i = 0; i < this.size; i++) {
+                int out = i * batch;
+                int a = this.left[i] * batch;
+                int b = this.right[i] * batch;
+                switch (this.ops[i]) {
+                    case VARIABLE:
+                        System.arraycopy(gains, this.left[i] * count + from,
+                                values, out, n);
+                        break;
+                    case CONSTANT:
+                        Arrays.fill(values, out, out + n,
+                                this.constants[this.left[i]]);
+                        break;
+                    case ADD:
+                        for (int j = 0; j < n; j++)
+                            values[out + j] = values[a + j] + values[b + j];
+                        break;
+                    case SUBTRACT:
+                        for (int j = 0; j < n; j++)
+                            values[out + j] = values[a + j] - values[b + j];
+                        break;
+                    case MULTIPLY:
+                        for (int j = 0; j < n; j++)
+                            values[out + j] = values[a + j] * values[b + j];
+                        break;
+                    default:
+                        for (int j = 0; j < n; j++)
+                            values[out + j] = values[a + j] / values[b + j];
+                }
+            }
+            System.arraycopy(values, this.root * batch, ret, from, n);
+        }
+        return ret;
+    }
+
+    /**
+     * Evaluates the expression for a batch of complex gain sets, laid out
+     * like {@link #evaluate(double[], int)} with a real and an imaginary
+     * part per gain, the real part of edge i in set j is at
+     * gains[2 * (i * count + j)] and the imaginary part right after it.
+     *
+     * @param gains complex gains of every edge for every set.
+     * @param count number of sets.
+     * @return overall gain of every set, real and imaginary parts of set j
+     * are at indices 2 * j and 2 * j + 1.
+     */
+    public double[] evaluateComplex(final double[] gains, final int count) {
+        if (gains.length < 2 * this.edges.length * count)
+            throw new IllegalArgumentException("Expected " + 2
+                    * this.edges.length * count + " gains, got "
+                    + gains.length + ".");
+        double[] ret = new double[2 * count];
+        int batch = Math.max(1, Math.min(MAX_BATCH,
+                BATCH_VALUES / (2 * this.size)));
+        int stride = 2 * batch;
+        double[] values = new double[this.size * stride];
+        for (int from = 0; from < count; from += batch) {
+            int n = Math.min(batch, count - from);
+            for (int i = 0; i < this.size; i++) {
+                int out = i * stride;
+                int a = this.left[i] * stride;
+                int b = this.right[i] * stride;
+                switch (this.ops[i]) {
+                    case VARIABLE:
+                        System.arraycopy(gains, 2 * (this.left[i] * count
+                                + from), values, out, 2 * n);
+                        break;
+                    case CONSTANT:
+                        for (int j = 0; j < 2 * n; j += 2) {
+                            values[out + j] = this.constants[this.left[i]];
+                            values[out + j + 1] = 0;
+                        }
+                        break;
+                    case ADD:
+                        for (int j = 0; j < 2 * n; j++)
+                            values[out + j] = values[a + j] + values[b + j];
+                        break;
+                    case SUBTRACT:
+                        for (int j = 0; j < 2 * n; j++)
+                            values[out + j] = values[a + j] - values[b + j];
+                        break;
+                    case MULTIPLY:
+                        for (int j = 0; j < 2 * n; j += 2) {
+                            double re = values[a + j] * values[b + j]
+                                    - values[a + j + 1] * values[b + j + 1];
+                            values[out + j + 1] = values[a + j]
+                                    * values[b + j + 1] + values[a + j + 1]
+                                    * values[b + j];
+                            values[out + j] = re;
+                        }
+                        break;
+                    default:
+                        for (int j = 0; j < 2 * n; j += 2) {
+                            double norm = values[b + j] * values[b + j]
+                                    + values[b + j + 1] * values[b + j + 1];
+                            double re = (values[a + j] * values[b + j]
+                                    + values[a + j + 1] * values[b + j + 1])
+                                    / norm;
+                            values[out + j + 1] = (values[a + j + 1]
+                                    * values[b + j] - values[a + j]
+                                    * values[b + j + 1]) / norm;
+                            values[out + j] = re;
+                        }
+                }
+            }
+            System.arraycopy(values, this.root * stride, ret, 2 * from, 2 * n);
+        }
+        return ret;
+    }
+
+    /**
+     * Finds the derivative of the overall gain by the gain of every edge at
+     * once. Values of all operations are found going forward, then the
+     * derivative of the overall gain by each of them is found going back
+     * from the root, so it costs about two evaluations whatever the number
+     * of edges.
+     *
+     * @param gains gain of every edge.
+     * @return derivative by every edge, entry i is for edge i.
+     */
+    public double[] differentiate(final double[] gains) {
+        if (gains.length < this.edges.length)
+            throw new IllegalArgumentException("Expected " + this.edges.length
+                    + " gains, got " + gains.length + ".");
+        double[] values = evaluateAll(gains);
+        double[] adjoints = new double[this.size];
+        double[] ret = new double[this.edges.length];
+        adjoints[this.root] = 1;
+        //Operands are always added before the operations using them.
+        for (int i = this.root; i >= 0; i--) {
+            double adjoint = adjoints[i];
+            if (adjoint == 0)
+                continue;
+            int a = this.left[i];
+            int b = this.right[i];
+            switch (this.ops[i]) {
+                case VARIABLE:
+                    ret[a] += adjoint;
+                    break;
+                case ADD:
+                    adjoints[a] += adjoint;
+                    adjoints[b] += adjoint;
+                    break;
+                case SUBTRACT:
+                    adjoints[a] += adjoint;
+                    adjoints[b] -= adjoint;
+                    break;
+                case MULTIPLY:
+                    adjoints[a] += adjoint * values[b];
+                    adjoints[b] += adjoint * values[a];
+                    break;
+                case DIVIDE:
+                    adjoints[a] += adjoint / values[b];
+                    adjoints[b] -= adjoint * values[i] / values[b];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Evaluates the expression exactly with the gain of every edge replaced
+     * by a rational function of s. Every operation keeps a numerator and the
+     * list of edges whose denominators make its denominator, so sums only
+     * multiply in the denominators they're missing and no common factor is
+     * repeated, the division at the root then gives a single fraction.
+     *
+     * @param functions function of every edge, function i replaces the gain
+     *                  of edge i.
+     * @return overall gain as a function of s.
+     */
+    public RationalFunction evaluate(final RationalFunction[] functions) {
+        if (functions.length < this.edges.length)
+            throw new IllegalArgumentException("Expected " + this.edges.length
+                    + " functions, got " + functions.length + ".");
+        double[][] denominators = new double[functions.length][];
+        for (int i = 0; i < this.edges.length; i++)
+            denominators[i] = functions[i].getDenominator();
+        double[][] numerators = new double[this.size][];
+        int[][] factors = new int[this.size][];
+        int[] none = new int[0];
+        for (int i = 0; i < this.size; i++) {
+            int a = this.left[i];
+            int b = this.right[i];
+            switch (this.ops[i]) {
+                case VARIABLE:
+                    double[] denominator = Polynomials.trim(denominators[a]);
+                    if (denominator.length == 1) {
+                        numerators[i] = Polynomials.scale(
+                                functions[a].getNumerator(),
+                                1 / denominator[0]);
+                        factors[i] = none;
+                    } else {
+                        numerators[i] = functions[a].getNumerator();
+                        factors[i] = new int[]{a};
+                    }
+                    break;
+                case CONSTANT:
+                    numerators[i] = new double[]{this.constants[a]};
+                    factors[i] = none;
+                    break;
+                case ADD:
+                case SUBTRACT:
+                    double[] first = Polynomials.multiply(numerators[a],
+                            getProduct(denominators, without(factors[b],
+                                    factors[a])));
+                    double[] second = Polynomials.multiply(numerators[b],
+                            getProduct(denominators, without(factors[a],
+                                    factors[b])));
+                    numerators[i] = Polynomials.trim(this.ops[i] == ADD
+                            ? Polynomials.add(first, second)
+                            : Polynomials.subtract(first, second));
+                    factors[i] = union(factors[a], factors[b]);
+                    break;
+                case MULTIPLY:
+                    numerators[i] = Polynomials.multiply(numerators[a],
+                            numerators[b]);
+                    factors[i] = merge(factors[a], factors[b]);
+                    break;
+                default:
+                    if (i != this.root)
+                        throw new IllegalStateException(
+                                "Only the overall gain is divided.");
+            }
+        }
+        if (this.ops[this.root] != DIVIDE)
+            return new RationalFunction(numerators[this.root],
+                    getProduct(denominators, factors[this.root]));
+        int a = this.left[this.root];
+        int b = this.right[this.root];
+        return new RationalFunction(Polynomials.trim(Polynomials.multiply(
+                numerators[a], getProduct(denominators,
+                        without(factors[b], factors[a])))),
+                Polynomials.trim(Polynomials.multiply(numerators[b],
+                        getProduct(denominators, without(factors[a],
+                                factors[b])))));
+    }
+
+    /**
+     * Evaluates every operation for a single set of gains.
+     */
+    private double[] evaluateAll(final double[] gains) {
+        double[] ret = new double[this.size];
+        for (int i = 0; i < this.size; i++) {
+            int a = this.left[i];
+            int b = this.right[i];
+            switch (this.ops[i]) {
+                case VARIABLE:
+                    ret[i] = gains[a];
+                    break;
+                case CONSTANT:
+                    ret[i] = this.constants[a];
+                    break;
+                case ADD:
+                    ret[i] = ret[a] + ret[b];
+                    break;
+                case SUBTRACT:
+                    ret[i] = ret[a] - ret[b];
+                    break;
+                case MULTIPLY:
+                    ret[i] = ret[a] * ret[b];
+                    break;
+                default:
+                    ret[i] = ret[a] / ret[b];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Builds delta of some loops: loop sets that never touch multiply, else
+     * groups either skip a loop or take it and skip every loop touching it.
+     */
+    private int getDelta(final BitSet candidates) {
+        if (candidates.isEmpty())
+            return add(CONSTANT, 1, 0);
+        Integer ret = this.deltas.get(candidates);
+        if (ret != null)
+            return ret;
+        List<BitSet> components = this.touchMatrix.split(candidates);
+        if (components.size() > 1) {
+            ret = getDelta(components.get(0));
+            for (int i = 1; i < components.size(); i++)
+                ret = add(MULTIPLY, ret, getDelta(components.get(i)));
+        } else {
+            int loop = this.touchMatrix.pickLoop(candidates);
+            BitSet without = (BitSet) candidates.clone();
+            without.clear(loop);
+            BitSet nonTouching = (BitSet) candidates.clone();
+            nonTouching.andNot(this.touchMatrix.getTouching(loop));
+            ret = add(SUBTRACT, getDelta(without), add(MULTIPLY,
+                    this.loopGains[loop], getDelta(nonTouching)));
+        }
+        this.deltas.put((BitSet) candidates.clone(), ret);
+        return ret;
+    }
+
+    private double[] getProduct(final double[][] polynomials,
+                                final int[] factors) {
+        double[] ret = new double[]{1};
+        for (int factor : factors)
+            ret = Polynomials.multiply(ret, polynomials[factor]);
+        return ret;
+    }
+
+    /**
+     * Merges two sorted lists of denominator edges, keeping repeats.
+     */
+    private static int[] merge(final int[] a, final int[] b) {
+        int[] ret = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < a.length || j < b.length)
+            if (j == b.length || i < a.length && a[i] <= b[j])
+                ret[k++] = a[i++];
+            else
+                ret[k++] = b[j++];
+        return ret;
+    }
+
+    private static int[] union(final int[] a, final int[] b) {
+        return merge(a, without(b, a));
+    }
+
+    /**
+     * Gets the factors of a left after taking out each factor of b once.
+     */
+    private static int[] without(final int[] a, final int[] b) {
+        int[] ret = new int[a.length];
+        int j = 0;
+        int k = 0;
+        for (int factor : a) {
+            while (j < b.length && b[j] < factor)
+                j++;
+            if (j < b.length && b[j] == factor)
+                j++;
+            else
+                ret[k++] = factor;
+        }
+        return Arrays.copyOf(ret, k);
+    }
+
+    private int getProduct(final PathArena paths, final int path) {
+        int[] pathEdges = paths.getEdges();
+        int offset = paths.getOffset(path);
+        int ret = add(VARIABLE, pathEdges[offset], 0);
+        for (int i = offset + 1; i < offset + paths.getLength(path); i++)
+            ret = add(MULTIPLY, ret, add(VARIABLE, pathEdges[i], 0));
+        return ret;
+    }
+
+    /**
+     * Adds an operation unless an equal one exists, multiplying by one or
+     * adding zero gives back the other operand.
+     *
+     * @return id of the operation.
+     */
+    private int add(final int op, final int first, final int second) {
+        //Operands of commutative operations are ordered so both orders match.
+        boolean commutative = op == ADD || op == MULTIPLY;
+        int a = commutative ? Math.min(first, second) : first;
+        int b = commutative ? Math.max(first, second) : second;
+        if (op == MULTIPLY && isConstant(a, 1) || op == ADD && isConstant(a, 0))
+            return b;
+        if ((op == MULTIPLY || op == DIVIDE) && isConstant(b, 1)
+                || (op == ADD || op == SUBTRACT) && isConstant(b, 0))
+            return a;
+        long key = (long) op << 60 | (long) a << 30 | b;
+        Integer ret = this.ids.get(key);
+        if (ret != null)
+            return ret;
+        if (this.size == this.ops.length) {
+            this.ops = Arrays.copyOf(this.ops, this.size * 2);
+            this.left = Arrays.copyOf(this.left, this.size * 2);
+            this.right = Arrays.copyOf(this.right, this.size * 2);
+        }
+        this.ops[this.size] = op;
+        this.left[this.size] = a;
+        this.right[this.size] = b;
+        this.ids.put(key, this.size);
+        return this.size++;
+    }
+
+    private boolean isConstant(final int id, final double value) {
+        return this.ops[id] == CONSTANT && this.constants[this.left[id]] == value;
+    }
+}
@@ -0,0 +1,236 @@
+package sfg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the overall gain of a compiled SFG without building any
+ * {@link Path}, {@link LoopGroup} or {@link Delta}: loops are kept as packed
+ * node masks and gains, and forward paths are kept as edge id lists along
+ * with the set of loops they don't touch.
+ * Everything found depends only on the structure of the SFG, so once gains
+ * change a solver is refreshed instead of searching again.
+ */
+class GainSolver {
+    private CompiledSfg graph = null;
+    private int words = 0;
+    private PathArena loops = null;
+    private long[] loopMasks = null;
+    private double[] loopGains = null;
+    private int loopCount = 0;
+    private TouchMatrix touchMatrix = null;
+    private IndependencePolynomial polynomial = null;
+    private LoopIndex loopIndex = null;
+    private int deltaTerm = 0;
+    private long[] pathMask = null;
+    private int[] nodeStack = null;
+    private int[] edgeStack = null;
+    private int start = -1;
+    private int end = -1;
+    private PathArena forwardPaths = null;
+    private int[] pathCofactors = null;
+    private List<BitSet> cofactors = null;
+    private Map<BitSet, Integer> cofactorIds = null;
+    private int[] cofactorTerms = null;
+
+    /**
+     * Creates a solver, loops are found once and shared by every solve.
+     *
+     * @param graph     compiled SFG.
+     * @param search    search state fitting the graph.
+     * @param loopArena arena to hold the loops while their masks are built.
+     */
+    GainSolver(final CompiledSfg graph, final PathSearch search,
+               final PathArena loopArena) {
+        this.graph = graph;
+        this.words = (graph.size() + 63) >>> 6;
+        loopArena.clear();
+        for (int i = 0; i < graph.size(); i++)
+            search.findLoops(graph, i, loopArena);
+        this.loopCount = loopArena.size();
+        this.loops = new PathArena();
+        this.loopMasks = new long[this.words * this.loopCount];
+        int[] edges = loopArena.getEdges();
+        int[] sources = graph.getSources();
+        for (int i = 0; i < this.loopCount; i++) {
+            int offset = loopArena.getOffset(i);
+            int length = loopArena.getLength(i);
+            this.loops.add(Arrays.copyOfRange(edges, offset, offset + length),
+                    length);
+            for (int j = offset; j < offset + length; j++) {
+                int node = sources[edges[j]];
+                this.loopMasks[i * this.words + (node >>> 6)] |= 1L << node;
+            }
+        }
+        this.touchMatrix = new TouchMatrix(this.loopMasks, this.words,
+                this.loopCount);
+        this.loopIndex = new LoopIndex(this.loopMasks, this.words,
+                this.loopCount);
+        this.loopGains = new double[this.loopCount];
+        this.polynomial = new IndependencePolynomial(this.touchMatrix,
+                this.loopGains);
+        refreshGains();
+        BitSet all = new BitSet(this.loopCount);
+        all.set(0, this.loopCount);
+        this.deltaTerm = this.polynomial.getTerm(all);
+        this.pathMask = new long[this.words];
+        this.nodeStack = new int[graph.size() + 1];
+        this.edgeStack = new int[graph.size() + 1];
+        this.forwardPaths = new PathArena();
+        this.pathCofactors = new int[16];
+        this.cofactors = new ArrayList<>();
+        this.cofactorIds = new HashMap<>();
+        this.cofactorTerms = new int[16];
+    }
+
+    CompiledSfg getGraph() {
+        return this.graph;
+    }
+
+    /**
+     * Recomputes loop gains from the gains of the graph, found loops,
+     * forward paths and the polynomial terms of their deltas are kept.
+     */
+    void refreshGains() {
+        int[] edges = this.loops.getEdges();
+        double[] gains = this.graph.getGains();
+        for (int i = 0; i < this.loopCount; i++) {
+            this.loopGains[i] = 1;
+            for (int j = this.loops.getOffset(i); j < this.loops.getOffset(i)
+                    + this.loops.getLength(i); j++)
+                this.loopGains[i] *= gains[edges[j]];
+        }
+        this.polynomial.refreshGains();
+    }
+
+    /**
+     * Solves the SFG for a signal using Mason's formula, forward paths are
+     * only searched for if the signal differs from the last solve.
+     *
+     * @param start id of the starting node.
+     * @param end   id of the ending node.
+     * @return overall gain.
+     */
+    double solve(final int start, final int end) {
+        findForwardPaths(start, end);
+        double delta = this.polynomial.getGain(this.deltaTerm);
+        int[] edges = this.forwardPaths.getEdges();
+        double[] gains = this.graph.getGains();
+        double ret = 0;
+        for (int i = 0; i < this.forwardPaths.size(); i++) {
+            double gain = this.polynomial.getGain(
+                    this.cofactorTerms[this.pathCofactors[i]]);
+            for (int j = this.forwardPaths.getOffset(i); j < this.forwardPaths
+                    .getOffset(i) + this.forwardPaths.getLength(i); j++)
+                gain *= gains[edges[j]];
+            ret += gain;
+        }
+        return ret / delta;
+    }
+
+    /**
+     * Finds the forward paths of a signal, unless they were found for the
+     * last one.
+     *
+     * @param start id of the starting node.
+     * @param end   id of the ending node.
+     */
+    void findForwardPaths(final int start, final int end) {
+        if (start == this.start && end == this.end)
+            return;
+        this.forwardPaths.clear();
+        this.cofactors.clear();
+        this.cofactorIds.clear();
+        searchForwardPaths(start, end);
+        this.start = start;
+        this.end = end;
+    }
+
+    PathArena getLoops() {
+        return this.loops;
+    }
+
+    TouchMatrix getTouchMatrix() {
+        return this.touchMatrix;
+    }
+
+    PathArena getForwardPaths() {
+        return this.forwardPaths;
+    }
+
+    /**
+     * Gets the loops a forward path doesn't touch.
+     *
+     * @param path index of the forward path.
+     * @return indices of the loops.
+     */
+    BitSet getNonTouching(final int path) {
+        return this.cofactors.get(this.pathCofactors[path]);
+    }
+
+    /**
+     * Stores every forward path from start, the path so far is marked in
+     * pathMask, its nodes are on the node stack and the edge each of them
+     * is at is on the edge stack.
+     */
+    private void searchForwardPaths(final int start, final int end) {
+        int[] offsets = this.graph.getOffsets();
+        int[] targets = this.graph.getTargets();
+        int depth = 0;
+        this.nodeStack[0] = start;
+        this.edgeStack[0] = offsets[start];
+        this.pathMask[start >>> 6] |= 1L << start;
+        while (depth >= 0) {
+            int curr = this.nodeStack[depth];
+            int edge = this.edgeStack[depth];
+            if (edge == offsets[curr + 1]) {
+                this.pathMask[curr >>> 6] &= ~(1L << curr);
+                if (--depth >= 0)
+                    this.edgeStack[depth]++;
+                continue;
+            }
+            int next = targets[edge];
+            if (next == end)
+                addForwardPath(end, depth + 1);
+            else if ((this.pathMask[next >>> 6] & 1L << next) == 0) {
+                this.pathMask[next >>> 6] |= 1L << next;
+                this.nodeStack[++depth] = next;
+                this.edgeStack[depth] = offsets[next];
+                continue;
+            }
+            this.edgeStack[depth]++;
+        }
+    }
+
+    /**
+     * Stores the forward path on the edge stack with the id of the loops set
+     * it doesn't touch, sets are shared between paths.
+     */
+    private void addForwardPath(final int end, final int length) {
+        long endBit = this.pathMask[end >>> 6] & 1L << end;
+        this.pathMask[end >>> 6] |= 1L << end;
+        BitSet nonTouching = this.loopIndex.getNonTouching(this.pathMask);
+        this.pathMask[end >>> 6] = this.pathMask[end >>> 6] & ~(1L << end)
+                | endBit;
+        Integer cofactor = this.cofactorIds.get(nonTouching);
+        if (cofactor == null) {
+            cofactor = this.cofactors.size();
+            this.cofactors.add(nonTouching);
+            this.cofactorIds.put(nonTouching, cofactor);
+            if (cofactor == this.cofactorTerms.length)
+                this.cofactorTerms = Arrays.copyOf(this.cofactorTerms,
+                        cofactor * 2);
+            this.cofactorTerms[cofactor] = this.polynomial.getTerm(
+                    nonTouching);
+        }
+        if (this.forwardPaths.size() == this.pathCofactors.length)
+            this.pathCofactors = Arrays.copyOf(this.pathCofactors,
+                    this.pathCofactors.length * 2);
+        this.pathCofactors[this.forwardPaths.size()] = cofactor;
+        this.forwardPaths.add(this.edgeStack, length);
+    }
+}
@@ -0,0 +1,173 @@
+package sfg;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The independence polynomial of the loops touching graph, coefficient k is
+ * the summed gain of every group of k non touching loops.
+ * Candidate sets are split into connected components whose polynomials
+ * multiply, and results are memoized by the candidate set, so groups
+ * shared between deltas are never summed twice.
+ * Every memoized result is kept as a term over earlier terms, so once loop
+ * gains change the terms are evaluated again in place instead of splitting
+ * the candidate sets again.
+ */
+class IndependencePolynomial {
+    private TouchMatrix touchMatrix = null;
+    private double[] loopGains = null;
+    private Map<BitSet, Integer> memo = null;
+    /**
+     * Loop taken by a split term, -1 for the product of two terms.
+     */
+    private int[] termLoops = null;
+    private int[] firstTerms = null;
+    private int[] secondTerms = null;
+    private double[][] coefficients = null;
+    private int termCount = 0;
+
+    /**
+     * Creates the polynomial for a list of loops.
+     *
+     * @param touchMatrix touching matrix of the loops.
+     * @param loopGains   gain of every loop, in the matrix order.
+     */
+    IndependencePolynomial(final TouchMatrix touchMatrix,
+                           final double[] loopGains) {
+        this.touchMatrix = touchMatrix;
+        this.loopGains = loopGains;
+        this.memo = new HashMap<>();
+        this.termLoops = new int[16];
+        this.firstTerms = new int[16];
+        this.secondTerms = new int[16];
+        this.coefficients = new double[16][];
+        //Term 0 is the empty set.
+        this.coefficients[0] = new double[]{1};
+        this.termCount = 1;
+    }
+
+    /**
+     * Gets the coefficients of the polynomial restricted to some loops.
+     *
+     * @param candidates indices of the loops to be grouped.
+     * @return coefficients, index k is the summed gain of groups of k loops.
+     */
+    double[] getCoefficients(final BitSet candidates) {
+        //Terms are added while the array grows, so it's read afterwards.
+        int term = getTerm(candidates);
+        return this.coefficients[term];
+    }
+
+    /**
+     * Gets the term of some loops, kept terms follow later gain changes.
+     *
+     * @param candidates indices of the loops.
+     * @return id of the term.
+     */
+    int getTerm(final BitSet candidates) {
+        if (candidates.isEmpty())
+            return 0;
+        Integer ret = this.memo.get(candidates);
+        if (ret != null)
+            return ret;
+        List<BitSet> components = this.touchMatrix.split(candidates);
+        int term;
+        if (components.size() > 1) {
+            term = getTerm(components.get(0));
+            for (int i = 1; i < components.size(); i++)
+                term = addTerm(-1, term, getTerm(components.get(i)));
+        } else {
+            //Groups either skip the loop, or take it and skip its touching.
+            int loop = this.touchMatrix.pickLoop(candidates);
+            BitSet without = (BitSet) candidates.clone();
+            without.clear(loop);
+            BitSet nonTouching = (BitSet) candidates.clone();
+            nonTouching.andNot(this.touchMatrix.getTouching(loop));
+            term = addTerm(loop, getTerm(without), getTerm(nonTouching));
+        }
+        this.memo.put((BitSet) candidates.clone(), term);
+        return term;
+    }
+
+    /**
+     * Gets the delta of some loops, 1 - sum of single loops + sum of pairs...
+     *
+     * @param candidates indices of the loops.
+     * @return delta gain.
+     */
+    double getGain(final BitSet candidates) {
+        return getGain(getCoefficients(candidates));
+    }
+
+    /**
+     * Gets the delta of the loops of a term.
+     *
+     * @param term id of the term.
+     * @return delta gain.
+     */
+    double getGain(final int term) {
+        return getGain(this.coefficients[term]);
+    }
+
+    static double getGain(final double[] coefficients) {
+        double ret = 0;
+        for (int i = 0; i < coefficients.length; i++)
+            ret += i % 2 == 0 ? coefficients[i] : -coefficients[i];
+        return ret;
+    }
+
+    /**
+     * Evaluates every term again after the loop gains array was changed in
+     * place, terms only depend on earlier ones so one pass is enough.
+     */
+    void refreshGains() {
+        for (int i = 1; i < this.termCount; i++)
+            evaluate(i);
+    }
+
+    private int addTerm(final int loop, final int first, final int second) {
+        if (this.termCount == this.termLoops.length) {
+            int length = this.termCount * 2;
+            this.termLoops = Arrays.copyOf(this.termLoops, length);
+            this.firstTerms = Arrays.copyOf(this.firstTerms, length);
+            this.secondTerms = Arrays.copyOf(this.secondTerms, length);
+            this.coefficients = Arrays.copyOf(this.coefficients, length);
+        }
+        int term = this.termCount++;
+        this.termLoops[term] = loop;
+        this.firstTerms[term] = first;
+        this.secondTerms[term] = second;
+        int firstLength = this.coefficients[first].length;
+        int secondLength = this.coefficients[second].length;
+        this.coefficients[term] = new double[loop == -1
+                ? firstLength + secondLength - 1
+                : Math.max(firstLength, secondLength + 1)];
+        evaluate(term);
+        return term;
+    }
+
+    /**
+     * A split term sums the groups skipping its loop and those taking it,
+     * a product term multiplies two polynomials of non touching loops.
+     */
+    private void evaluate(final int term) {
+        double[] ret = this.coefficients[term];
+        double[] first = this.coefficients[this.firstTerms[term]];
+        double[] second = this.coefficients[this.secondTerms[term]];
+        int loop = this.termLoops[term];
+        Arrays.fill(ret, 0);
+        if (loop == -1) {
+            for (int i = 0; i < first.length; i++)
+                for (int j = 0; j < second.length; j++)
+                    ret[i + j] += first[i] * second[j];
+        } else {
+            for (int i = 0; i < first.length; i++)
+                ret[i] += first[i];
+            for (int i = 0; i < second.length; i++)
+                ret[i + 1] += this.loopGains[loop] * second[i];
+        }
+    }
+}
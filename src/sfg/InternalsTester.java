@@ -0,0 +1,209 @@
+package sfg;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests of the package private parts of the solver, which
+ * {@link test.Tester} can't reach.
+ */
+public class InternalsTester {
+
+    @Test
+    public void testTouchMatrix() {
+        //Over 64 nodes, so node masks span several words.
+        int testSize = 150;
+        Random random = new Random(3);
+        Sfg sfg = new Sfg();
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, Integer> nodeIndex = new HashMap<>();
+        for (int i = 0; i < testSize; i++) {
+            nodes.add(new Node("n" + i));
+            nodeIndex.put(nodes.get(i), i);
+        }
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < testSize - 1; i++)
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i + 1), 1));
+        for (int i = 8; i < testSize; i += 4)
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i - 2
+                    - random.nextInt(6)), 0.5));
+        List<Path> loops = sfg.solve(nodes.get(0), nodes.get(testSize - 1))
+                .getLoops();
+        int words = (testSize + 63) / 64;
+        long[] masks = new long[loops.size() * words];
+        List<Path> unindexed = new ArrayList<>();
+        for (int i = 0; i < loops.size(); i++) {
+            loops.get(i).indexNodes(nodeIndex);
+            long[] mask = loops.get(i).getNodeMask().toLongArray();
+            System.arraycopy(mask, 0, masks, i * words, mask.length);
+            //Paths without masks compare their node lists instead.
+            Path path = new Path();
+            List<Node> loopNodes = loops.get(i).getNodeList();
+            path.addNodes(loopNodes.toArray(new Node[loopNodes.size()]));
+            unindexed.add(path);
+        }
+        TouchMatrix matrix = new TouchMatrix(loops);
+        TouchMatrix packed = new TouchMatrix(masks, words, loops.size());
+        boolean touching = false;
+        boolean nonTouching = false;
+        for (int i = 0; i < loops.size(); i++)
+            for (int j = 0; j < loops.size(); j++) {
+                boolean expected = unindexed.get(i).touches(unindexed.get(j));
+                Assert.assertEquals(expected, matrix.getTouching(i).get(j));
+                Assert.assertEquals(expected, packed.getTouching(i).get(j));
+                touching |= expected && i != j;
+                nonTouching |= !expected;
+            }
+        Assert.assertTrue(touching && nonTouching);
+    }
+
+    @Test
+    public void testDeadEndPruning() {
+        int branchSize = 200;
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, List<Edge>> adj = new LinkedHashMap<>();
+        for (int i = 0; i < 3 + 2 * branchSize; i++) {
+            nodes.add(new Node("n" + i));
+            adj.put(nodes.get(i), new ArrayList<>());
+        }
+        Node start = nodes.get(0), middle = nodes.get(1), end = nodes.get(2);
+        adj.get(start).add(new Edge(start, middle, 1));
+        adj.get(middle).add(new Edge(middle, end, 1));
+        //A tree hanging off start which never reaches end.
+        for (int i = 1; i < branchSize; i++) {
+            Node parent = nodes.get(3 + (i - 1) / 2);
+            adj.get(parent).add(new Edge(parent, nodes.get(3 + i), 1));
+        }
+        adj.get(start).add(new Edge(start, nodes.get(3), 1));
+        //A ring off middle whose only way to end is back through middle.
+        int ring = 3 + branchSize;
+        for (int i = 0; i < branchSize; i++) {
+            Node node = nodes.get(ring + i);
+            adj.get(node).add(new Edge(node, nodes.get(ring
+                    + (i + 1) % branchSize), 1));
+        }
+        adj.get(middle).add(new Edge(middle, nodes.get(ring), 1));
+        adj.get(nodes.get(ring + branchSize - 1)).add(new Edge(
+                nodes.get(ring + branchSize - 1), middle, 1));
+        CompiledSfg graph = new CompiledSfg(nodes, adj);
+        PathSearch search = new PathSearch(graph.size());
+        PathArena paths = new PathArena();
+        search.findForwardPaths(graph, 0, 2, paths);
+        Assert.assertEquals(1, paths.size());
+        //Only start and middle are entered, neither branch is.
+        Assert.assertEquals(2, search.getExpanded());
+    }
+
+    @Test
+    public void testPolynomialRefresh() {
+        int loopCount = 24;
+        Random random = new Random(5);
+        long[] masks = new long[loopCount];
+        double[] gains = new double[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            //Loops over 40 nodes, sparse enough to split into components.
+            for (int j = 0; j < 3; j++)
+                masks[i] |= 1L << random.nextInt(40);
+            gains[i] = random.nextDouble() - 0.5;
+        }
+        TouchMatrix matrix = new TouchMatrix(masks, 1, loopCount);
+        IndependencePolynomial polynomial = new IndependencePolynomial(matrix,
+                gains);
+        List<BitSet> sets = new ArrayList<>();
+        int[] terms = new int[10];
+        for (int i = 0; i < terms.length; i++) {
+            BitSet set = new BitSet();
+            for (int j = 0; j < loopCount; j++)
+                if (i == 0 || random.nextBoolean())
+                    set.set(j);
+            sets.add(set);
+            terms[i] = polynomial.getTerm(set);
+        }
+        for (int change = 0; change < 3; change++) {
+            for (int i = 0; i < loopCount; i++)
+                gains[i] = random.nextDouble() - 0.5;
+            polynomial.refreshGains();
+            IndependencePolynomial fresh = new IndependencePolynomial(matrix,
+                    gains.clone());
+            for (int i = 0; i < terms.length; i++) {
+                //Terms are kept, only their values follow the gains.
+                Assert.assertEquals(terms[i], polynomial.getTerm(sets.get(i)));
+                Assert.assertArrayEquals(fresh.getCoefficients(sets.get(i)),
+                        polynomial.getCoefficients(sets.get(i)), 1e-12);
+                Assert.assertEquals(fresh.getGain(sets.get(i)),
+                        polynomial.getGain(terms[i]), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testCompiledSfg() {
+        Node out = new Node("out"), isolated = new Node("isolated"),
+                a = new Node("a"), in = new Node("in"), b = new Node("b");
+        List<Node> nodes = Arrays.asList(out, isolated, a, in, b);
+        Map<Node, List<Edge>> adj = new LinkedHashMap<>();
+        adj.put(out, new ArrayList<>());
+        adj.put(isolated, new ArrayList<>());
+        adj.put(a, Arrays.asList(new Edge(a, a, 0.5), new Edge(a, out, 3),
+                new Edge(a, b, 1)));
+        adj.put(in, Arrays.asList(new Edge(in, a, 2)));
+        adj.put(b, Arrays.asList(new Edge(b, a, 4)));
+        CompiledSfg graph = new CompiledSfg(nodes, adj);
+        Assert.assertEquals(5, graph.size());
+        Assert.assertEquals(3, graph.getIndex(in));
+        Assert.assertArrayEquals(new int[]{0, 0, 0, 3, 4, 5},
+                graph.getOffsets());
+        Assert.assertArrayEquals(new int[]{2, 2, 2, 3, 4}, graph.getSources());
+        Assert.assertArrayEquals(new int[]{2, 0, 4, 2, 2}, graph.getTargets());
+        Assert.assertArrayEquals(new double[]{0.5, 3, 1, 2, 4},
+                graph.getGains(), 0);
+        //Edges entering a node keep the order of their ids.
+        Assert.assertArrayEquals(new int[]{0, 1, 1, 4, 4, 5},
+                graph.getReverseOffsets());
+        Assert.assertArrayEquals(new int[]{2, 2, 3, 4, 2},
+                graph.getReverseSources());
+        int[] components = graph.getComponents();
+        Assert.assertEquals(components[2], components[4]);
+        Assert.assertEquals(4, Arrays.stream(components).distinct().count());
+        Assert.assertArrayEquals(new boolean[]{true, false, true, true, true},
+                graph.getReachable(3));
+        Assert.assertArrayEquals(new boolean[]{true, false, true, true, true},
+                graph.getReaching(0));
+        Assert.assertArrayEquals(new boolean[]{false, true, false, false,
+                false}, graph.getReaching(1));
+        Assert.assertArrayEquals(new boolean[]{true, false, true, true, true},
+                graph.getRoute(3, 0));
+        Assert.assertNull(graph.getRoute(0, 3));
+    }
+
+    @Test
+    public void testLongChainComponents() {
+        int testSize = 200000;
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, List<Edge>> adj = new LinkedHashMap<>();
+        for (int i = 0; i < testSize; i++) {
+            nodes.add(new Node("n" + i));
+            adj.put(nodes.get(i), new ArrayList<>());
+        }
+        for (int i = 0; i < testSize - 1; i++)
+            adj.get(nodes.get(i)).add(new Edge(nodes.get(i), nodes.get(i + 1),
+                    1));
+        //The back edge closes the second half into one component.
+        adj.get(nodes.get(testSize - 1)).add(new Edge(nodes.get(testSize - 1),
+                nodes.get(testSize / 2), 1));
+        int[] components = new CompiledSfg(nodes, adj).getComponents();
+        for (int i = testSize / 2; i < testSize; i++)
+            Assert.assertEquals(components[testSize / 2], components[i]);
+        Assert.assertEquals(testSize / 2 + 1,
+                Arrays.stream(components).distinct().count());
+    }
+}
@@ -0,0 +1,167 @@
+package sfg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes the overall gain of a compiled SFG by solving its node equations
+ * instead of enumerating paths and loops.
+ * Every node signal is the sum of its incoming edges gains times their
+ * sources signals, plus a unit input at the start node, so the gain is
+ * x[end] of (I - A^T) x = e[start]. The system is solved by sparse Gaussian
+ * elimination, pivots are picked by Markowitz cost to limit fill, among
+ * entries large enough to keep the elimination stable.
+ */
+class LinearSolver {
+    /**
+     * Entries smaller than this ratio of their row's largest entry aren't
+     * used as pivots.
+     */
+    private static final double PIVOT_THRESHOLD = 0.1;
+
+    private CompiledSfg graph = null;
+
+    /**
+     * Creates a solver.
+     *
+     * @param graph compiled SFG.
+     */
+    LinearSolver(final CompiledSfg graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Solves the SFG for a signal, giving the same result as Mason's formula.
+     *
+     * @param start id of the starting node.
+     * @param end   id of the ending node.
+     * @return overall gain, NaN if the system is singular.
+     */
+    double solve(final int start, final int end) {
+        boolean[] route = this.graph.getRoute(start, end);
+        if (route == null)
+            return 0;
+        int[] row = new int[this.graph.size()];
+        List<Integer> nodes = new ArrayList<>();
+        for (int i = 0; i < this.graph.size(); i++)
+            if (route[i]) {
+                row[i] = nodes.size();
+                nodes.add(i);
+            }
+        List<Map<Integer, Double>> rows = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            Map<Integer, Double> equation = new HashMap<>();
+            equation.put(i, 1.0);
+            rows.add(equation);
+        }
+        int[] sources = this.graph.getSources();
+        int[] targets = this.graph.getTargets();
+        double[] gains = this.graph.getGains();
+        for (int edge = 0; edge < targets.length; edge++)
+            if (route[sources[edge]] && route[targets[edge]])
+                add(rows.get(row[targets[edge]]), row[sources[edge]],
+                        -gains[edge]);
+        double[] rhs = new double[nodes.size()];
+        rhs[row[start]] = 1;
+        double[] x = solve(rows, rhs);
+        if (x == null)
+            return Double.NaN;
+        //Mason's forward paths from a node to itself are its loops, which
+        //leaves out the unit input.
+        return start == end ? x[row[end]] - 1 : x[row[end]];
+    }
+
+    private static void add(final Map<Integer, Double> row, final int column,
+                            final double value) {
+        double sum = row.getOrDefault(column, 0.0) + value;
+        if (sum == 0)
+            row.remove(column);
+        else
+            row.put(column, sum);
+    }
+
+    /**
+     * Solves a square sparse system, rows are consumed.
+     *
+     * @return solution, null if the system is singular.
+     */
+    private static double[] solve(final List<Map<Integer, Double>> rows,
+                                  final double[] rhs) {
+        int n = rows.size();
+        List<Set<Integer>> columns = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            columns.add(new HashSet<>());
+        for (int i = 0; i < n; i++)
+            for (int column : rows.get(i).keySet())
+                columns.get(column).add(i);
+        boolean[] eliminated = new boolean[n];
+        int[] pivotRows = new int[n];
+        int[] pivotColumns = new int[n];
+        for (int step = 0; step < n; step++) {
+            int pivotRow = -1;
+            int pivotColumn = -1;
+            long minCost = Long.MAX_VALUE;
+            for (int i = 0; i < n && minCost > 0; i++) {
+                if (eliminated[i])
+                    continue;
+                Map<Integer, Double> row = rows.get(i);
+                if (row.isEmpty())
+                    return null;
+                double max = 0;
+                for (double value : row.values())
+                    max = Math.max(max, Math.abs(value));
+                for (Map.Entry<Integer, Double> entry : row.entrySet()) {
+                    if (Math.abs(entry.getValue()) < PIVOT_THRESHOLD * max)
+                        continue;
+                    long cost = (long) (row.size() - 1)
+                            * (columns.get(entry.getKey()).size() - 1);
+                    if (cost < minCost) {
+                        minCost = cost;
+                        pivotRow = i;
+                        pivotColumn = entry.getKey();
+                    }
+                }
+            }
+            eliminated[pivotRow] = true;
+            pivotRows[step] = pivotRow;
+            pivotColumns[step] = pivotColumn;
+            Map<Integer, Double> pivotEquation = rows.get(pivotRow);
+            double pivot = pivotEquation.get(pivotColumn);
+            for (Integer column : pivotEquation.keySet())
+                columns.get(column).remove(pivotRow);
+            for (int other : new ArrayList<>(columns.get(pivotColumn))) {
+                Map<Integer, Double> row = rows.get(other);
+                double factor = row.get(pivotColumn) / pivot;
+                for (Map.Entry<Integer, Double> entry
+                        : pivotEquation.entrySet()) {
+                    int column = entry.getKey();
+                    if (column == pivotColumn) {
+                        row.remove(column);
+                        columns.get(column).remove(other);
+                        continue;
+                    }
+                    add(row, column, -factor * entry.getValue());
+                    if (row.containsKey(column))
+                        columns.get(column).add(other);
+                    else
+                        columns.get(column).remove(other);
+                }
+                rhs[other] -= factor * rhs[pivotRow];
+            }
+        }
+        double[] x = new double[n];
+        for (int step = n - 1; step >= 0; step--) {
+            Map<Integer, Double> row = rows.get(pivotRows[step]);
+            double sum = rhs[pivotRows[step]];
+            for (Map.Entry<Integer, Double> entry : row.entrySet())
+                if (entry.getKey() != pivotColumns[step])
+                    sum -= entry.getValue() * x[entry.getKey()];
+            x[pivotColumns[step]] = sum / row.get(pivotColumns[step]);
+        }
+        return x;
+    }
+}
@@ -2,14 +2,17 @@ package sfg;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 public class LoopGroup {
     private List<Path> loopList = null;
     private double gain = 1;
+    private BitSet nodeMask = null;
 
     public LoopGroup() {
         this.loopList = new ArrayList<>();
+        this.nodeMask = new BitSet();
     }
 
     public double getGain() {
@@ -22,17 +25,47 @@ public class LoopGroup {
 
     public void addLoops(final Path... loops) {
         this.loopList.addAll(Arrays.asList(loops));
-        for (Path loop : loops)
+        for (Path loop : loops) {
             gain *= loop.getGain();
+            if (this.nodeMask != null && loop.getNodeMask() != null)
+                this.nodeMask.or(loop.getNodeMask());
+            else
+                this.nodeMask = null;
+        }
     }
 
     public void removeLoops(final Path... loops) {
         this.loopList.removeAll(Arrays.asList(loops));
         for (Path loop : loops)
             gain /= loop.getGain();
+        this.nodeMask = new BitSet();
+        for (Path loop : this.loopList)
+            if (this.nodeMask != null && loop.getNodeMask() != null)
+                this.nodeMask.or(loop.getNodeMask());
+            else
+                this.nodeMask = null;
+    }
+
+    /**
+     * Recomputes the gain and node mask from the current gains and masks of
+     * the loops.
+     */
+    void refresh() {
+        this.gain = 1;
+        this.nodeMask = new BitSet();
+        for (Path loop : this.loopList) {
+            this.gain *= loop.getGain();
+            if (this.nodeMask != null && loop.getNodeMask() != null)
+                this.nodeMask.or(loop.getNodeMask());
+            else
+                this.nodeMask = null;
+        }
     }
 
     public boolean touches(final Path path) {
+        //The running mask holds every node of the group's loops.
+        if (this.nodeMask != null && path.getNodeMask() != null)
+            return this.nodeMask.intersects(path.getNodeMask());
         for (Path loopInGroup : this.loopList)
             if (path.touches(loopInGroup))
                 return true;
@@ -45,4 +78,4 @@ public class LoopGroup {
         clone.addLoops(this.loopList.toArray(new Path[this.loopList.size()]));
         return clone;
     }
-}
\ No newline at end of file
+}
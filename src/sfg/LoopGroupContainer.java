@@ -2,34 +2,146 @@ package sfg;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class LoopGroupContainer {
     private List<LoopGroup> groupList = null;
     private double gain = 0;
     private int degree = 0;
+    private NonTouchingGroups source = null;
+    private BitSet candidates = null;
 
     public LoopGroupContainer(final int degree) {
         this.groupList = new ArrayList<>();
         this.degree = degree;
     }
 
+    /**
+     * Creates a lazy container, its groups are enumerated from source on
+     * every request and never kept.
+     *
+     * @param degree     number of loops per group.
+     * @param gain       summed gain of the groups.
+     * @param source     source of the groups.
+     * @param candidates indices of the loops to be grouped.
+     */
+    LoopGroupContainer(final int degree, final double gain,
+                       final NonTouchingGroups source,
+                       final BitSet candidates) {
+        this(degree);
+        this.gain = gain;
+        this.source = source;
+        this.candidates = candidates;
+    }
+
     public void addLoopGroups(final LoopGroup... loopGroups) {
+        if (this.source != null)
+            throw new UnsupportedOperationException(
+                    "Lazy containers can't be modified.");
         this.groupList.addAll(Arrays.asList(loopGroups));
         for (LoopGroup group : loopGroups)
             gain += group.getGain();
     }
 
+    /**
+     * Gets the number of groups, lazy containers count them without
+     * enumerating them. Like collections, containers of more than
+     * Integer.MAX_VALUE groups give Integer.MAX_VALUE, use {@link #count()}
+     * for the exact number.
+     *
+     * @return number of groups.
+     */
     public int size() {
-        return this.groupList.size();
+        if (this.source == null)
+            return this.groupList.size();
+        OptionalLong count = count();
+        return count.isPresent() ? (int) Math.min(count.getAsLong(),
+                Integer.MAX_VALUE) : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Counts the groups exactly.
+     *
+     * @return number of groups, empty if it's more than Long.MAX_VALUE.
+     */
+    public OptionalLong count() {
+        if (this.source == null)
+            return OptionalLong.of(this.groupList.size());
+        return this.source.count(this.candidates, this.degree);
     }
 
     public boolean empty() {
         return size() == 0;
     }
 
+    /**
+     * Gets the groups of this container, lazy containers enumerate a new
+     * list on every call, prefer {@link #iterator()} for them.
+     *
+     * @return list of groups.
+     */
     public List<LoopGroup> getGroupList() {
-        return groupList;
+        if (this.source == null)
+            return groupList;
+        List<LoopGroup> ret = new ArrayList<>();
+        iterator().forEachRemaining(ret::add);
+        return ret;
+    }
+
+    /**
+     * Iterates over the groups of this container without keeping them.
+     *
+     * @return iterator over the groups.
+     */
+    public Iterator<LoopGroup> iterator() {
+        if (this.source == null)
+            return this.groupList.iterator();
+        return this.source.iterator(this.candidates, this.degree);
+    }
+
+    public Stream<LoopGroup> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Recomputes the gain from the current gains of the groups, lazy
+     * containers keep the gain they were created with.
+     */
+    void refresh() {
+        if (this.source != null)
+            return;
+        this.gain = 0;
+        for (LoopGroup group : this.groupList) {
+            group.refresh();
+            this.gain += group.getGain();
+        }
+    }
+
+    /**
+     * Drops every group having any of some loops.
+     *
+     * @param loops loops to be dropped.
+     */
+    void removeLoops(final Set<Path> loops) {
+        if (this.source != null)
+            throw new UnsupportedOperationException(
+                    "Lazy containers can't be modified.");
+        this.groupList.removeIf(group -> group.getLoopList().stream()
+                .anyMatch(loops::contains));
+        refresh();
+    }
+
+    public boolean isLazy() {
+        return this.source != null;
     }
 
     public double getGain() {
@@ -42,9 +154,13 @@ public class LoopGroupContainer {
 
     @Override
     public Object clone() {
+        //Lazy views are immutable, so they're shared instead of copied.
+        if (this.source != null)
+            return new LoopGroupContainer(this.degree, this.gain, this.source,
+                    this.candidates);
         LoopGroupContainer clone = new LoopGroupContainer(this.degree);
         for (LoopGroup loopGroup : this.groupList)
             clone.addLoopGroups((LoopGroup) loopGroup.clone());
         return clone;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package sfg;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An inverted index from nodes to the loops passing through them, used to
+ * find the loops a path doesn't touch without checking every loop.
+ * Nodes are either keyed by themselves or, for loops kept as packed node
+ * masks, by their ids.
+ */
+class LoopIndex {
+    private Map<Node, BitSet> nodeLoops = null;
+    private BitSet[] idLoops = null;
+    private int loopCount = 0;
+
+    /**
+     * Creates the index.
+     *
+     * @param loops loops to be indexed.
+     */
+    LoopIndex(final List<Path> loops) {
+        this.nodeLoops = new HashMap<>();
+        this.loopCount = loops.size();
+        for (int i = 0; i < loops.size(); i++)
+            for (Node node : loops.get(i).getNodeList())
+                this.nodeLoops.computeIfAbsent(node, k -> new BitSet()).set(i);
+    }
+
+    /**
+     * Creates the index of loops kept as packed node masks.
+     *
+     * @param loopMasks node masks of the loops, words longs per loop.
+     * @param words     number of longs in a mask.
+     * @param loopCount number of loops.
+     */
+    LoopIndex(final long[] loopMasks, final int words, final int loopCount) {
+        this.idLoops = new BitSet[words << 6];
+        this.loopCount = loopCount;
+        for (int i = 0; i < loopCount; i++)
+            for (int k = 0; k < words; k++)
+                for (long mask = loopMasks[i * words + k]; mask != 0;
+                     mask &= mask - 1) {
+                    int node = k << 6 | Long.numberOfTrailingZeros(mask);
+                    if (this.idLoops[node] == null)
+                        this.idLoops[node] = new BitSet(loopCount);
+                    this.idLoops[node].set(i);
+                }
+    }
+
+    /**
+     * Gets the loops not touching a path.
+     *
+     * @param path path to be checked, all loops are returned if null.
+     * @return indices of the non touching loops.
+     */
+    BitSet getNonTouching(final Path path) {
+        BitSet ret = new BitSet(this.loopCount);
+        ret.set(0, this.loopCount);
+        if (path != null)
+            for (Node node : path.getNodeList()) {
+                BitSet touching = this.nodeLoops.get(node);
+                if (touching != null)
+                    ret.andNot(touching);
+            }
+        return ret;
+    }
+
+    /**
+     * Gets the loops not touching a path kept as a packed node mask, the
+     * index must be built from masks.
+     *
+     * @param pathMask node mask of the path.
+     * @return indices of the non touching loops.
+     */
+    BitSet getNonTouching(final long[] pathMask) {
+        BitSet ret = new BitSet(this.loopCount);
+        ret.set(0, this.loopCount);
+        for (int k = 0; k < pathMask.length; k++)
+            for (long mask = pathMask[k]; mask != 0; mask &= mask - 1) {
+                BitSet touching = this.idLoops[k << 6
+                        | Long.numberOfTrailingZeros(mask)];
+                if (touching != null)
+                    ret.andNot(touching);
+            }
+        return ret;
+    }
+
+    int getLoopCount() {
+        return this.loopCount;
+    }
+}
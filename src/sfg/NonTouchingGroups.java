@@ -0,0 +1,197 @@
+package sfg;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.OptionalLong;
+
+/**
+ * A lazy source of non touching loop groups, gains per degree are summed
+ * eagerly through the loops independence polynomial while the groups
+ * themselves are only enumerated when iterated. Enumerated groups hold
+ * copies of the loops.
+ */
+class NonTouchingGroups {
+    private List<Path> loops = null;
+    private TouchMatrix touchMatrix = null;
+    private IndependencePolynomial gains = null;
+    private Map<BitSet, long[]> counts = null;
+    private LoopIndex loopIndex = null;
+
+    /**
+     * Creates a source for a list of loops, loops must have their nodes
+     * indexed already.
+     *
+     * @param loops loops of the SFG.
+     */
+    NonTouchingGroups(final List<Path> loops) {
+        this.loops = loops;
+        this.touchMatrix = new TouchMatrix(loops);
+        double[] loopGains = new double[loops.size()];
+        for (int i = 0; i < loopGains.length; i++)
+            loopGains[i] = loops.get(i).getGain();
+        this.gains = new IndependencePolynomial(this.touchMatrix, loopGains);
+        this.loopIndex = new LoopIndex(loops);
+        this.counts = new HashMap<>();
+    }
+
+    /**
+     * Creates a delta whose containers are lazy views over the groups of
+     * some loops.
+     *
+     * @param candidates indices of the loops to be grouped.
+     * @return delta of these loops.
+     */
+    Delta getDelta(final BitSet candidates) {
+        Delta ret = new Delta();
+        double[] degreeGains = this.gains.getCoefficients(candidates);
+        for (int i = 1; i < degreeGains.length; i++)
+            ret.addContainers(new LoopGroupContainer(i, degreeGains[i], this,
+                    candidates));
+        return ret;
+    }
+
+    /**
+     * Creates a bitset of the loops not touching a path.
+     *
+     * @param path path to be checked, all loops are returned if null.
+     * @return indices of the non touching loops.
+     */
+    BitSet getNonTouching(final Path path) {
+        return this.loopIndex.getNonTouching(path);
+    }
+
+    /**
+     * Counts the groups of some degree exactly without enumerating them.
+     *
+     * @return number of groups, empty if it doesn't fit in a long.
+     */
+    synchronized OptionalLong count(final BitSet candidates,
+                                    final int degree) {
+        long[] degreeCounts = getCounts(candidates);
+        if (degree >= degreeCounts.length)
+            return OptionalLong.of(0);
+        return degreeCounts[degree] < 0 ? OptionalLong.empty()
+                : OptionalLong.of(degreeCounts[degree]);
+    }
+
+    /**
+     * Counts groups per degree the way the independence polynomial sums
+     * their gains, in longs so counts stay exact. Counts too large for a
+     * long are -1.
+     */
+    private long[] getCounts(final BitSet candidates) {
+        if (candidates.isEmpty())
+            return new long[]{1};
+        long[] ret = this.counts.get(candidates);
+        if (ret != null)
+            return ret;
+        List<BitSet> components = this.touchMatrix.split(candidates);
+        if (components.size() > 1) {
+            ret = new long[]{1};
+            for (BitSet component : components) {
+                long[] factor = getCounts(component);
+                long[] product = new long[ret.length + factor.length - 1];
+                for (int i = 0; i < ret.length; i++)
+                    for (int j = 0; j < factor.length; j++)
+                        product[i + j] = add(product[i + j],
+                                multiply(ret[i], factor[j]));
+                ret = product;
+            }
+        } else {
+            int loop = this.touchMatrix.pickLoop(candidates);
+            BitSet without = (BitSet) candidates.clone();
+            without.clear(loop);
+            BitSet nonTouching = (BitSet) candidates.clone();
+            nonTouching.andNot(this.touchMatrix.getTouching(loop));
+            long[] skipped = getCounts(without);
+            long[] taken = getCounts(nonTouching);
+            ret = new long[Math.max(skipped.length, taken.length + 1)];
+            for (int i = 0; i < skipped.length; i++)
+                ret[i] = add(ret[i], skipped[i]);
+            for (int i = 0; i < taken.length; i++)
+                ret[i + 1] = add(ret[i + 1], taken[i]);
+        }
+        this.counts.put((BitSet) candidates.clone(), ret);
+        return ret;
+    }
+
+    private static long add(final long a, final long b) {
+        if (a < 0 || b < 0)
+            return -1;
+        long ret = a + b;
+        return ret < 0 ? -1 : ret;
+    }
+
+    private static long multiply(final long a, final long b) {
+        if (a < 0 || b < 0)
+            return -1;
+        return b != 0 && a > Long.MAX_VALUE / b ? -1 : a * b;
+    }
+
+    Iterator<LoopGroup> iterator(final BitSet candidates, final int degree) {
+        return new GroupIterator(candidates, degree);
+    }
+
+    /**
+     * Walks the include/exclude tree of the loops in index order, keeping
+     * only the current group on its stack.
+     */
+    private class GroupIterator implements Iterator<LoopGroup> {
+        private int[] chosen = null;
+        private BitSet[] allowed = null;
+        private int level = 0;
+        private boolean hasNext = false;
+
+        GroupIterator(final BitSet candidates, final int degree) {
+            this.chosen = new int[degree];
+            this.allowed = new BitSet[degree];
+            this.allowed[0] = candidates;
+            this.chosen[0] = -1;
+            this.hasNext = advance();
+        }
+
+        private boolean advance() {
+            while (this.level >= 0) {
+                int next = this.allowed[this.level].nextSetBit(
+                        this.chosen[this.level] + 1);
+                if (next < 0) {
+                    this.level--;
+                    continue;
+                }
+                this.chosen[this.level] = next;
+                if (this.level == this.chosen.length - 1)
+                    return true;
+                BitSet nextAllowed = (BitSet) this.allowed[this.level].clone();
+                nextAllowed.andNot(touchMatrix.getTouching(next));
+                nextAllowed.clear(0, next + 1);
+                if (nextAllowed.cardinality() < this.chosen.length
+                        - this.level - 1)
+                    continue;
+                this.level++;
+                this.allowed[this.level] = nextAllowed;
+                this.chosen[this.level] = -1;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.hasNext;
+        }
+
+        @Override
+        public LoopGroup next() {
+            if (!this.hasNext)
+                throw new NoSuchElementException();
+            LoopGroup group = new LoopGroup();
+            for (int loop : this.chosen)
+                group.addLoops((Path) loops.get(loop).clone());
+            this.hasNext = advance();
+            return group;
+        }
+    }
+}
@@ -10,6 +10,7 @@ public class Path {
     private List<Node> nodeList = null;
     private double gain = 1;
     private long totEdgesHashCodes = 0;
+    private BitSet nodeMask = null;
 
     /**
      * Creates a new empty path.
@@ -41,6 +42,22 @@ public class Path {
         this.nodeList.addAll(Arrays.asList(nodes));
     }
 
+    /**
+     * Marks the nodes of this path in a bitset keyed by the given dense node
+     * indices, so touching checks become a single bitwise AND.
+     *
+     * @param nodeIndex dense index of every node of the SFG.
+     */
+    void indexNodes(final Map<Node, Integer> nodeIndex) {
+        this.nodeMask = new BitSet(nodeIndex.size());
+        for (Node node : this.nodeList)
+            this.nodeMask.set(nodeIndex.get(node));
+    }
+
+    BitSet getNodeMask() {
+        return this.nodeMask;
+    }
+
     /**
      * Checks if this path touches another path (intersect in a
      * node/edge or more).
@@ -49,6 +66,8 @@ public class Path {
      * @return true if they touch, false if not.
      */
     public boolean touches(final Path path) {
+        if (this.nodeMask != null && path.nodeMask != null)
+            return this.nodeMask.intersects(path.nodeMask);
         Set<Node> nodeSet = new HashSet<>(this.nodeList);
         for (Node node : path.nodeList)
             if (nodeSet.contains(node))
@@ -65,6 +84,10 @@ public class Path {
         return this.gain;
     }
 
+    void setGain(final double gain) {
+        this.gain = gain;
+    }
+
     public List<Node> getNodeList() {
         return nodeList;
     }
@@ -80,9 +103,21 @@ public class Path {
         return (int) hash % 10000007;
     }
 
+    /**
+     * Checks if two paths have the same edges, the order of edges doesn't
+     * matter, so different rotations of a loop are equal.
+     */
     @Override
     public boolean equals(final Object obj) {
-        return getClass() == obj.getClass() && hashCode() == obj.hashCode();
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass()
+                || hashCode() != obj.hashCode())
+            return false;
+        Path path = (Path) obj;
+        //Hashes may collide, so edges are compared as well.
+        return this.edgeList.size() == path.edgeList.size()
+                && new HashSet<>(this.edgeList).containsAll(path.edgeList);
     }
 
     @Override
@@ -90,6 +125,7 @@ public class Path {
         Path clone = new Path();
         clone.addNodes(this.nodeList.toArray(new Node[this.nodeList.size()]));
         clone.addEdges(this.edgeList.toArray(new Edge[this.edgeList.size()]));
+        clone.nodeMask = this.nodeMask;
         return clone;
     }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package sfg;
+
+import java.util.Arrays;
+
+/**
+ * An append-only store of paths as edge id sequences, path i is the slice
+ * offset(i)..offset(i) + length(i) - 1 of the edges array. Clearing keeps
+ * the arrays, so a warm arena doesn't allocate.
+ */
+class PathArena {
+    private int[] edges = null;
+    private int[] offsets = null;
+    private int size = 0;
+
+    /**
+     * Creates an empty arena.
+     */
+    PathArena() {
+        this.edges = new int[64];
+        this.offsets = new int[17];
+    }
+
+    /**
+     * Appends a path.
+     *
+     * @param edgeStack stack holding the edges of the path.
+     * @param length    number of edges of the path.
+     */
+    void add(final int[] edgeStack, final int length) {
+        if (this.size + 1 == this.offsets.length)
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        int offset = this.offsets[this.size];
+        if (offset + length > this.edges.length)
+            this.edges = Arrays.copyOf(this.edges, Math.max(
+                    this.edges.length * 2, offset + length));
+        System.arraycopy(edgeStack, 0, this.edges, offset, length);
+        this.offsets[++this.size] = offset + length;
+    }
+
+    void clear() {
+        this.size = 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    int getOffset(final int path) {
+        return this.offsets[path];
+    }
+
+    int getLength(final int path) {
+        return this.offsets[path + 1] - this.offsets[path];
+    }
+
+    /**
+     * Gets the edges array, only valid until the next append.
+     *
+     * @return edges of all paths.
+     */
+    int[] getEdges() {
+        return this.edges;
+    }
+}
@@ -0,0 +1,392 @@
+package sfg;
+
+import java.util.Arrays;
+
+/**
+ * Reusable depth first search kernels over a {@link CompiledSfg}, all
+ * traversal state lives in primitive arrays kept between searches, and
+ * found paths are appended to a {@link PathArena}.
+ * Visited/blocked marks are epoch stamps, so starting a new search never
+ * clears them.
+ */
+class PathSearch {
+    private int[] nodeStack = null;
+    private int[] edgeStack = null;
+    private boolean[] found = null;
+    private int[] visited = null;
+    private int[] blocked = null;
+    private int[][] waiting = null;
+    private int[] waitingSize = null;
+    private int[] waitingEpoch = null;
+    private int epoch = 0;
+    private int[] reach = null;
+    private int[] componentVisits = null;
+    private int[] explored = null;
+    private int exploreStamp = 0;
+    private int[] queue = null;
+    private long expanded = 0;
+
+    /**
+     * Creates the search state for graphs up to some size.
+     *
+     * @param size number of nodes.
+     */
+    PathSearch(final int size) {
+        this.edgeStack = new int[0];
+        ensureCapacity(size);
+    }
+
+    /**
+     * Grows the state to fit a graph, does nothing if it already fits.
+     *
+     * @param size number of nodes.
+     */
+    void ensureCapacity(final int size) {
+        if (this.edgeStack.length >= size + 1)
+            return;
+        this.nodeStack = new int[size + 1];
+        this.edgeStack = new int[size + 1];
+        this.found = new boolean[size + 1];
+        this.visited = new int[size];
+        this.blocked = new int[size];
+        this.waiting = new int[size][];
+        this.waitingSize = new int[size];
+        this.waitingEpoch = new int[size];
+        this.epoch = 0;
+        this.reach = new int[size];
+        this.componentVisits = new int[size];
+        this.explored = new int[size];
+        this.exploreStamp = 0;
+        this.queue = new int[size];
+    }
+
+    /**
+     * Appends every forward path from start to end.
+     */
+    void findForwardPaths(final CompiledSfg graph, final int start,
+                          final int end, final PathArena out) {
+        nextEpoch();
+        markReach(graph, end);
+        getForwardPathsUtil(graph, start, end, 0, out);
+    }
+
+    /**
+     * Appends the forward paths from start to end beginning with an edge.
+     */
+    void findForwardPaths(final CompiledSfg graph, final int start,
+                          final int first, final int end,
+                          final PathArena out) {
+        int next = graph.getTargets()[first];
+        nextEpoch();
+        markReach(graph, end);
+        this.edgeStack[0] = first;
+        if (next == end)
+            out.add(this.edgeStack, 1);
+        else if (next != start) {
+            visit(graph, start);
+            if (canReach(graph, next, end))
+                getForwardPathsUtil(graph, next, end, 1, out);
+            leave(graph, start);
+        }
+    }
+
+    /**
+     * Appends the forward paths from start to end taking an edge, excluded
+     * edges are never taken. Every forward path is appended if through is
+     * -1.
+     */
+    void findForwardPaths(final CompiledSfg graph, final int start,
+                          final int end, final int through,
+                          final boolean[] excluded, final PathArena out) {
+        nextEpoch();
+        markReach(graph, end);
+        boolean[] toThrough = through == -1 ? null
+                : graph.getReaching(graph.getSources()[through]);
+        getForwardPathsUtil(graph, start, end, through, toThrough, excluded,
+                out);
+    }
+
+    private void nextEpoch() {
+        if (++this.epoch == Integer.MAX_VALUE) {
+            Arrays.fill(this.visited, 0);
+            Arrays.fill(this.blocked, 0);
+            Arrays.fill(this.waitingEpoch, 0);
+            Arrays.fill(this.reach, 0);
+            this.epoch = 1;
+        }
+    }
+
+    /**
+     * Marks the nodes having any path to end, a reverse breadth first search
+     * from end.
+     */
+    private void markReach(final CompiledSfg graph, final int end) {
+        int[] reverseOffsets = graph.getReverseOffsets();
+        int[] reverseSources = graph.getReverseSources();
+        int head = 0;
+        int tail = 0;
+        this.reach[end] = this.epoch;
+        this.queue[tail++] = end;
+        while (head < tail) {
+            int curr = this.queue[head++];
+            for (int i = reverseOffsets[curr]; i < reverseOffsets[curr + 1]; i++)
+                if (this.reach[reverseSources[i]] != this.epoch) {
+                    this.reach[reverseSources[i]] = this.epoch;
+                    this.queue[tail++] = reverseSources[i];
+                }
+        }
+    }
+
+    /**
+     * Checks if node can still reach end without reusing a node of the path
+     * so far.
+     * A route from node can only run into the path inside node's own
+     * strongly connected component, so it's enough to search that
+     * component for an exit to a node reaching end.
+     */
+    private boolean canReach(final CompiledSfg graph, final int node,
+                             final int end) {
+        if (this.reach[node] != this.epoch)
+            return false;
+        int[] components = graph.getComponents();
+        if (this.componentVisits[components[node]] == 0)
+            return true;
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        if (++this.exploreStamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.explored, 0);
+            this.exploreStamp = 1;
+        }
+        int head = 0;
+        int tail = 0;
+        this.explored[node] = this.exploreStamp;
+        this.queue[tail++] = node;
+        while (head < tail) {
+            int curr = this.queue[head++];
+            for (int edge = offsets[curr]; edge < offsets[curr + 1]; edge++) {
+                int next = targets[edge];
+                if (next == end || components[next] != components[node]
+                        && this.reach[next] == this.epoch)
+                    return true;
+                if (components[next] == components[node]
+                        && this.visited[next] != this.epoch
+                        && this.explored[next] != this.exploreStamp) {
+                    this.explored[next] = this.exploreStamp;
+                    this.queue[tail++] = next;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of nodes the forward path searches entered, so tests
+     * can check what pruning leaves out.
+     *
+     * @return entered nodes since the state was created.
+     */
+    long getExpanded() {
+        return this.expanded;
+    }
+
+    private void visit(final CompiledSfg graph, final int node) {
+        this.expanded++;
+        this.visited[node] = this.epoch;
+        this.componentVisits[graph.getComponents()[node]]++;
+    }
+
+    private void leave(final CompiledSfg graph, final int node) {
+        this.visited[node] = 0;
+        this.componentVisits[graph.getComponents()[node]]--;
+    }
+
+    /**
+     * Depth first search for forward paths from first, the node at every
+     * depth is on the node stack and the edge it's at is on the edge stack,
+     * the stacks below base are kept. Branches are only entered if they can
+     * still reach end.
+     */
+    private void getForwardPathsUtil(final CompiledSfg graph, final int first,
+                                     final int end, final int base,
+                                     final PathArena out) {
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        int depth = base;
+        this.nodeStack[depth] = first;
+        this.edgeStack[depth] = offsets[first];
+        visit(graph, first);
+        while (depth >= base) {
+            int curr = this.nodeStack[depth];
+            int edge = this.edgeStack[depth];
+            if (edge == offsets[curr + 1]) {
+                leave(graph, curr);
+                if (--depth >= base)
+                    this.edgeStack[depth]++;
+                continue;
+            }
+            int next = targets[edge];
+            if (next == end)
+                out.add(this.edgeStack, depth + 1);
+            else if (this.visited[next] != this.epoch
+                    && canReach(graph, next, end)) {
+                visit(graph, next);
+                this.nodeStack[++depth] = next;
+                this.edgeStack[depth] = offsets[next];
+                continue;
+            }
+            this.edgeStack[depth]++;
+        }
+    }
+
+    /**
+     * Depth first search for forward paths from start taking an edge, until
+     * it's taken branches are only entered if they can reach its source.
+     * toThrough is null if any path is taken, takenAt is the depth the edge
+     * was taken at.
+     */
+    private void getForwardPathsUtil(final CompiledSfg graph, final int start,
+                                     final int end, final int through,
+                                     final boolean[] toThrough,
+                                     final boolean[] excluded,
+                                     final PathArena out) {
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        int depth = 0;
+        int takenAt = -1;
+        this.nodeStack[0] = start;
+        this.edgeStack[0] = offsets[start];
+        visit(graph, start);
+        while (depth >= 0) {
+            int curr = this.nodeStack[depth];
+            int edge = this.edgeStack[depth];
+            if (edge == offsets[curr + 1]) {
+                leave(graph, curr);
+                if (--depth >= 0) {
+                    if (takenAt == depth)
+                        takenAt = -1;
+                    this.edgeStack[depth]++;
+                }
+                continue;
+            }
+            boolean taken = toThrough == null || takenAt != -1
+                    || edge == through;
+            int next = targets[edge];
+            if (excluded[edge])
+                this.edgeStack[depth]++;
+            else if (next == end) {
+                if (taken)
+                    out.add(this.edgeStack, depth + 1);
+                this.edgeStack[depth]++;
+            } else if (this.visited[next] != this.epoch
+                    && (taken || toThrough[next])
+                    && canReach(graph, next, end)) {
+                if (taken && takenAt == -1 && toThrough != null)
+                    takenAt = depth;
+                visit(graph, next);
+                this.nodeStack[++depth] = next;
+                this.edgeStack[depth] = offsets[next];
+            } else
+                this.edgeStack[depth]++;
+        }
+    }
+
+    /**
+     * Appends every loop whose least node is start, using Johnson's circuit
+     * search restricted to the component of start.
+     */
+    void findLoops(final CompiledSfg graph, final int start,
+                   final PathArena out) {
+        nextEpoch();
+        getLoopsUtil(graph, start, out);
+    }
+
+    /**
+     * A node stays blocked until a loop is found through it, so dead ends
+     * aren't explored more than once per start node. Like the forward path
+     * search it keeps its own stacks, found marks the depths a loop was
+     * found below.
+     */
+    private void getLoopsUtil(final CompiledSfg graph, final int start,
+                              final PathArena out) {
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        int[] components = graph.getComponents();
+        int depth = 0;
+        this.nodeStack[0] = start;
+        this.edgeStack[0] = offsets[start];
+        this.found[0] = false;
+        this.blocked[start] = this.epoch;
+        while (depth >= 0) {
+            int curr = this.nodeStack[depth];
+            int edge = this.edgeStack[depth];
+            if (edge == offsets[curr + 1]) {
+                boolean found = this.found[depth];
+                if (found)
+                    unblock(curr);
+                else
+                    for (int i = offsets[curr]; i < offsets[curr + 1]; i++)
+                        if (targets[i] >= start
+                                && components[targets[i]] == components[start])
+                            addWaiting(targets[i], curr);
+                if (--depth >= 0) {
+                    this.found[depth] |= found;
+                    this.edgeStack[depth]++;
+                }
+                continue;
+            }
+            int next = targets[edge];
+            if (next >= start && components[next] == components[start]) {
+                if (next == start) {
+                    out.add(this.edgeStack, depth + 1);
+                    this.found[depth] = true;
+                } else if (this.blocked[next] != this.epoch) {
+                    this.blocked[next] = this.epoch;
+                    this.nodeStack[++depth] = next;
+                    this.edgeStack[depth] = offsets[next];
+                    this.found[depth] = false;
+                    continue;
+                }
+            }
+            this.edgeStack[depth]++;
+        }
+    }
+
+    private void addWaiting(final int node, final int other) {
+        if (this.waitingEpoch[node] != this.epoch) {
+            this.waitingEpoch[node] = this.epoch;
+            this.waitingSize[node] = 0;
+        }
+        int[] list = this.waiting[node];
+        for (int i = 0; i < this.waitingSize[node]; i++)
+            if (list[i] == other)
+                return;
+        if (list == null)
+            list = this.waiting[node] = new int[4];
+        else if (this.waitingSize[node] == list.length)
+            list = this.waiting[node] = Arrays.copyOf(list, list.length * 2);
+        list[this.waitingSize[node]++] = other;
+    }
+
+    /**
+     * Unblocks a node and the nodes waiting on it, the queue is used as the
+     * stack of nodes whose waiting lists are left.
+     */
+    private void unblock(final int node) {
+        int size = 0;
+        this.blocked[node] = 0;
+        this.queue[size++] = node;
+        while (size > 0) {
+            int curr = this.queue[--size];
+            if (this.waitingEpoch[curr] != this.epoch)
+                continue;
+            int[] list = this.waiting[curr];
+            int count = this.waitingSize[curr];
+            this.waitingSize[curr] = 0;
+            for (int i = 0; i < count; i++)
+                if (this.blocked[list[i]] == this.epoch) {
+                    this.blocked[list[i]] = 0;
+                    this.queue[size++] = list[i];
+                }
+        }
+    }
+}
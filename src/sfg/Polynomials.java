@@ -0,0 +1,91 @@
+package sfg;
+
+import java.util.Arrays;
+
+/**
+ * Arithmetic over polynomials kept as coefficient arrays in ascending
+ * powers, index k is the coefficient of x^k.
+ * Long products use Karatsuba's method, three half size products instead of
+ * four, which beats the schoolbook product once both operands are long.
+ */
+final class Polynomials {
+    /**
+     * Shortest operand length multiplied using Karatsuba's method.
+     */
+    private static final int KARATSUBA_THRESHOLD = 32;
+
+    private Polynomials() {
+    }
+
+    static double[] multiply(final double[] a, final double[] b) {
+        if (Math.min(a.length, b.length) < KARATSUBA_THRESHOLD)
+            return multiplySchoolbook(a, b);
+        int half = Math.max(a.length, b.length) / 2;
+        double[] a0 = Arrays.copyOf(a, Math.min(half, a.length));
+        double[] b0 = Arrays.copyOf(b, Math.min(half, b.length));
+        if (a.length <= half)
+            return Arrays.copyOf(add(multiply(a, b0), shift(multiply(a,
+                    Arrays.copyOfRange(b, half, b.length)), half)),
+                    a.length + b.length - 1);
+        if (b.length <= half)
+            return Arrays.copyOf(add(multiply(a0, b), shift(multiply(
+                    Arrays.copyOfRange(a, half, a.length), b), half)),
+                    a.length + b.length - 1);
+        double[] a1 = Arrays.copyOfRange(a, half, a.length);
+        double[] b1 = Arrays.copyOfRange(b, half, b.length);
+        double[] low = multiply(a0, b0);
+        double[] high = multiply(a1, b1);
+        double[] middle = subtract(subtract(multiply(add(a0, a1),
+                add(b0, b1)), low), high);
+        //Split halves may pad the product with zero coefficients.
+        return Arrays.copyOf(add(add(low, shift(middle, half)),
+                shift(high, 2 * half)), a.length + b.length - 1);
+    }
+
+    static double[] add(final double[] a, final double[] b) {
+        double[] ret = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++)
+            ret[i] += b[i];
+        return ret;
+    }
+
+    static double[] subtract(final double[] a, final double[] b) {
+        double[] ret = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++)
+            ret[i] -= b[i];
+        return ret;
+    }
+
+    static double[] scale(final double[] a, final double factor) {
+        double[] ret = new double[a.length];
+        for (int i = 0; i < a.length; i++)
+            ret[i] = a[i] * factor;
+        return ret;
+    }
+
+    /**
+     * Drops zero coefficients of the highest powers, the zero polynomial
+     * keeps a single coefficient.
+     */
+    static double[] trim(final double[] a) {
+        int length = a.length;
+        while (length > 1 && a[length - 1] == 0)
+            length--;
+        return length == a.length ? a : Arrays.copyOf(a, length);
+    }
+
+    private static double[] shift(final double[] a, final int powers) {
+        double[] ret = new double[a.length + powers];
+        System.arraycopy(a, 0, ret, powers, a.length);
+        return ret;
+    }
+
+    private static double[] multiplySchoolbook(final double[] a,
+                                               final double[] b) {
+        double[] ret = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++)
+            for (int j = 0; j < b.length; j++)
+                ret[i + j] += a[i] * b[j];
+        return ret;
+    }
+}
@@ -0,0 +1,266 @@
+package sfg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Gathers {@link SfgStatistics} of a compiled SFG in about linear time.
+ * Loops and forward paths are counted with Knuth's estimator: a random path
+ * is grown by picking uniformly among the edges it can still take, and the
+ * product of the number of choices met on the way estimates how many paths
+ * end the same way. Averaging a bounded number of samples gives an unbiased
+ * estimate.
+ */
+class Preflight {
+    /**
+     * Random paths sampled per estimate.
+     */
+    private static final int SAMPLES = 32;
+    /**
+     * Most loop starting nodes sampled, the rest are accounted for by
+     * scaling.
+     */
+    private static final int MAX_LOOP_STARTS = 256;
+    /**
+     * Samples are seeded alike so the same SFG always gets the same
+     * strategy.
+     */
+    private static final long SEED = 0x5F6L;
+
+    private CompiledSfg graph = null;
+    private CompiledSfg reduced = null;
+    private Random random = null;
+    private int[] visited = null;
+    private int epoch = 0;
+    private int[] choices = null;
+    private double[] componentLoops = null;
+    private double[] componentLengths = null;
+
+    /**
+     * Creates a preflight for a signal.
+     *
+     * @param graph   compiled SFG.
+     * @param reduced the same SFG with its pass through nodes collapsed.
+     */
+    Preflight(final CompiledSfg graph, final CompiledSfg reduced) {
+        this.graph = graph;
+        this.reduced = reduced;
+        this.random = new Random(SEED);
+        this.visited = new int[graph.size()];
+        this.choices = new int[graph.getTargets().length];
+    }
+
+    /**
+     * Gathers the statistics for a signal and picks a strategy.
+     *
+     * @param start id of the starting node.
+     * @param end   id of the ending node.
+     * @return statistics.
+     */
+    SfgStatistics getStatistics(final int start, final int end) {
+        int nodeCount = this.graph.size();
+        int edgeCount = this.graph.getTargets().length;
+        double loops = estimateLoops();
+        double forwardPaths = estimateForwardPaths(start, end);
+        double groups = estimateGroups();
+        //Mason's cost grows with what is enumerated times the nodes each
+        //path spans, plus the non touching groups of delta and of every
+        //forward path's cofactor, while elimination only grows with the SFG
+        //itself.
+        double searched = loops + forwardPaths;
+        double combined = (1 + forwardPaths) * groups;
+        double masonCost = searched * nodeCount + combined;
+        double reducedCost = searched * this.reduced.size() + combined
+                + edgeCount;
+        double algebraicCost = (double) nodeCount * (nodeCount + edgeCount);
+        SolveStrategy strategy;
+        if (!(Math.min(masonCost, reducedCost) <= algebraicCost))
+            strategy = SolveStrategy.ALGEBRAIC;
+        else if (reducedCost < masonCost)
+            strategy = SolveStrategy.REDUCED_MASON;
+        else
+            strategy = SolveStrategy.MASON;
+        return new SfgStatistics(nodeCount, edgeCount, this.reduced.size(),
+                this.reduced.getTargets().length, getComponentSizes(),
+                getCyclomaticNumber(), loops, forwardPaths, groups, strategy);
+    }
+
+    private int[] getComponentSizes() {
+        int[] components = this.graph.getComponents();
+        int count = 0;
+        for (int component : components)
+            count = Math.max(count, component + 1);
+        int[] ret = new int[count];
+        for (int component : components)
+            ret[component]++;
+        Arrays.sort(ret);
+        for (int i = 0; i < ret.length / 2; i++) {
+            int temp = ret[i];
+            ret[i] = ret[ret.length - 1 - i];
+            ret[ret.length - 1 - i] = temp;
+        }
+        return ret;
+    }
+
+    /**
+     * Estimates the non touching groups of every component out of its
+     * estimated loops and their mean length, taking loops as placed at
+     * random among the component's nodes: two loops of length l out of n
+     * nodes don't touch with a chance of about (1 - l / n)^l, and a group
+     * of k loops needs each of its pairs not to touch.
+     */
+    private double estimateGroups() {
+        int[] components = this.graph.getComponents();
+        int[] sizes = new int[this.graph.size()];
+        for (int component : components)
+            sizes[component]++;
+        double ret = 0;
+        for (int component = 0; component < sizes.length; component++) {
+            double loops = this.componentLoops[component];
+            if (sizes[component] == 0 || loops == 0)
+                continue;
+            double length = Math.max(1, this.componentLengths[component]
+                    / loops);
+            double nonTouching = length < sizes[component] ? Math.pow(
+                    1 - length / sizes[component], length) : 0;
+            //Groups of k loops, the first term counts single loops.
+            double term = 1;
+            for (int k = 1; k <= Math.ceil(loops)
+                    && k * length <= sizes[component]; k++) {
+                term *= (loops - k + 1) / k * Math.pow(nonTouching, k - 1);
+                ret += term;
+                if (term == 0 || Double.isInfinite(ret))
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    private int getCyclomaticNumber() {
+        int[] parent = new int[this.graph.size()];
+        for (int i = 0; i < parent.length; i++)
+            parent[i] = i;
+        int connected = parent.length;
+        int[] sources = this.graph.getSources();
+        int[] targets = this.graph.getTargets();
+        for (int edge = 0; edge < targets.length; edge++) {
+            int a = find(parent, sources[edge]);
+            int b = find(parent, targets[edge]);
+            if (a != b) {
+                parent[a] = b;
+                connected--;
+            }
+        }
+        return targets.length - parent.length + connected;
+    }
+
+    private int find(final int[] parent, final int node) {
+        int ret = node;
+        while (parent[ret] != ret) {
+            parent[ret] = parent[parent[ret]];
+            ret = parent[ret];
+        }
+        return ret;
+    }
+
+    /**
+     * Estimates forward paths by growing random simple paths from start
+     * through nodes which can still reach end.
+     */
+    private double estimateForwardPaths(final int start, final int end) {
+        boolean[] toEnd = this.graph.getReaching(end);
+        if (!toEnd[start])
+            return 0;
+        int[] offsets = this.graph.getOffsets();
+        int[] targets = this.graph.getTargets();
+        double sum = 0;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            nextEpoch();
+            int curr = start;
+            double weight = 1;
+            while (true) {
+                this.visited[curr] = this.epoch;
+                int count = 0;
+                for (int edge = offsets[curr]; edge < offsets[curr + 1];
+                     edge++) {
+                    int next = targets[edge];
+                    if (next == end || toEnd[next]
+                            && this.visited[next] != this.epoch)
+                        this.choices[count++] = next;
+                }
+                if (count == 0)
+                    break;
+                weight *= count;
+                curr = this.choices[this.random.nextInt(count)];
+                if (curr == end) {
+                    sum += weight;
+                    break;
+                }
+            }
+        }
+        return sum / SAMPLES;
+    }
+
+    /**
+     * Estimates loops the way they're enumerated, each from its least node,
+     * by growing random simple paths through greater nodes of the same
+     * component until they close back. Loops and their summed lengths are
+     * also estimated per component.
+     */
+    private double estimateLoops() {
+        int[] components = this.graph.getComponents();
+        int[] offsets = this.graph.getOffsets();
+        int[] targets = this.graph.getTargets();
+        int nodeCount = this.graph.size();
+        int starts = Math.min(nodeCount, MAX_LOOP_STARTS);
+        this.componentLoops = new double[nodeCount];
+        this.componentLengths = new double[nodeCount];
+        double sum = 0;
+        for (int i = 0; i < starts; i++) {
+            int first = starts == nodeCount ? i
+                    : this.random.nextInt(nodeCount);
+            double firstSum = 0;
+            double firstLengths = 0;
+            for (int sample = 0; sample < SAMPLES; sample++) {
+                nextEpoch();
+                int curr = first;
+                double weight = 1;
+                int length = 0;
+                while (true) {
+                    this.visited[curr] = this.epoch;
+                    int count = 0;
+                    for (int edge = offsets[curr]; edge < offsets[curr + 1];
+                         edge++) {
+                        int next = targets[edge];
+                        if (next == first || next > first
+                                && components[next] == components[first]
+                                && this.visited[next] != this.epoch)
+                            this.choices[count++] = next;
+                    }
+                    if (count == 0)
+                        break;
+                    weight *= count;
+                    curr = this.choices[this.random.nextInt(count)];
+                    length++;
+                    if (curr == first) {
+                        firstSum += weight;
+                        firstLengths += weight * length;
+                        break;
+                    }
+                }
+            }
+            sum += firstSum / SAMPLES;
+            double scale = (double) nodeCount / starts / SAMPLES;
+            this.componentLoops[components[first]] += firstSum * scale;
+            this.componentLengths[components[first]] += firstLengths * scale;
+        }
+        return sum * nodeCount / starts;
+    }
+
+    private void nextEpoch() {
+        if (++this.epoch == Integer.MAX_VALUE) {
+            Arrays.fill(this.visited, 0);
+            this.epoch = 1;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package sfg;
+
+/**
+ * A representation of a ratio of two polynomials in s, used as the gain of
+ * an edge that depends on frequency, or of an overall gain in terms of one
+ * varying edge gain. Coefficients are kept in ascending powers, index k is
+ * the coefficient of s^k.
+ */
+public class RationalFunction {
+    private double[] numerator = null;
+    private double[] denominator = null;
+
+    /**
+     * Creates a new rational function.
+     *
+     * @param numerator   numerator coefficients, ascending powers of s.
+     * @param denominator denominator coefficients, ascending powers of s.
+     */
+    public RationalFunction(final double[] numerator,
+                            final double[] denominator) {
+        if (numerator.length == 0 || denominator.length == 0)
+            throw new IllegalArgumentException(
+                    "Polynomials need at least one coefficient.");
+        this.numerator = numerator.clone();
+        this.denominator = denominator.clone();
+    }
+
+    /**
+     * Creates a constant function.
+     *
+     * @param gain value of the function.
+     */
+    public RationalFunction(final double gain) {
+        this(new double[]{gain}, new double[]{1});
+    }
+
+    public double[] getNumerator() {
+        return this.numerator.clone();
+    }
+
+    public double[] getDenominator() {
+        return this.denominator.clone();
+    }
+
+    /**
+     * Multiplies this function by another one, nothing is cancelled.
+     *
+     * @param other function to be multiplied by.
+     * @return product.
+     */
+    public RationalFunction multiply(final RationalFunction other) {
+        return new RationalFunction(Polynomials.multiply(this.numerator,
+                other.numerator), Polynomials.multiply(this.denominator,
+                other.denominator));
+    }
+
+    /**
+     * Evaluates the function at a complex s, the result is written as a real
+     * and an imaginary part next to each other.
+     *
+     * @param re    real part of s.
+     * @param im    imaginary part of s.
+     * @param out   array to write to.
+     * @param index index of the real part in out.
+     */
+    public void evaluate(final double re, final double im, final double[] out,
+                         final int index) {
+        evaluate(this.numerator, re, im, out, index);
+        double numRe = out[index];
+        double numIm = out[index + 1];
+        evaluate(this.denominator, re, im, out, index);
+        double denRe = out[index];
+        double denIm = out[index + 1];
+        double norm = denRe * denRe + denIm * denIm;
+        out[index] = (numRe * denRe + numIm * denIm) / norm;
+        out[index + 1] = (numIm * denRe - numRe * denIm) / norm;
+    }
+
+    /**
+     * Evaluates the function at a real s.
+     *
+     * @param s value of s.
+     * @return value of the function.
+     */
+    public double evaluate(final double s) {
+        double num = 0;
+        for (int i = this.numerator.length - 1; i >= 0; i--)
+            num = num * s + this.numerator[i];
+        double den = 0;
+        for (int i = this.denominator.length - 1; i >= 0; i--)
+            den = den * s + this.denominator[i];
+        return num / den;
+    }
+
+    /**
+     * Evaluates the function at many real points.
+     *
+     * @param points values of s.
+     * @return value of the function at every point.
+     */
+    public double[] evaluate(final double[] points) {
+        double[] ret = new double[points.length];
+        for (int i = 0; i < points.length; i++)
+            ret[i] = evaluate(points[i]);
+        return ret;
+    }
+
+    /**
+     * Evaluates a polynomial at a complex point using Horner's rule.
+     */
+    private static void evaluate(final double[] coefficients, final double re,
+                                 final double im, final double[] out,
+                                 final int index) {
+        double retRe = 0;
+        double retIm = 0;
+        for (int i = coefficients.length - 1; i >= 0; i--) {
+            double nextRe = retRe * re - retIm * im + coefficients[i];
+            retIm = retRe * im + retIm * re;
+            retRe = nextRe;
+        }
+        out[index] = retRe;
+        out[index + 1] = retIm;
+    }
+}
@@ -1,18 +1,52 @@
 package sfg;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
 
 /**
  * A representation for the structure of SFG and its services, allowing to solve
  * signal flow representations of physical systems using Mason's algorithm.
  */
 public class Sfg {
+    /**
+     * Minimum number of loops left in a non touching groups search for its
+     * subtrees to be forked in parallel mode.
+     */
+    private static final int PARALLEL_THRESHOLD = 12;
+    /**
+     * Number of chunks of start nodes per worker of the common pool in
+     * parallel loop searches, a few per worker even out their sizes.
+     */
+    private static final int LOOP_CHUNKS_PER_WORKER = 4;
+    /**
+     * Number of samples drawn and evaluated together in tolerance analysis,
+     * each chunk is a task in parallel mode.
+     */
+    private static final int TOLERANCE_CHUNK = 4096;
+
     private List<Path> forwardPaths = null;
     private List<Path> loops = null;
     private Map<Node, List<Edge>> adj = null;
     private Map<String, Node> nodeMap = null;
     private Delta delta = null;
     private Map<Path, Delta> forwardPathsDeltas = null;
+    private DeltaEngine deltaEngine = DeltaEngine.NON_TOUCHING_GROUPS;
+    private boolean parallel = false;
+    private boolean crossCheck = false;
+    private boolean preReduction = false;
+    private CompiledSfg graph = null;
+    private CompiledSfg reducedGraph = null;
+    private GainSolver gainSolver = null;
+    private GainSolver reducedGainSolver = null;
+    private SolvePlan plan = null;
+    private Set<Edge> addedEdges = null;
+    private Set<Edge> removedEdges = null;
+    private PathSearch search = null;
+    private PathArena forwardArena = null;
+    private PathArena loopArena = null;
 
     /**
      * Creates a new empty Sfg.
@@ -24,6 +58,11 @@ public class Sfg {
         this.nodeMap = new HashMap<>();
         this.delta = new Delta();
         this.forwardPathsDeltas = new HashMap<>();
+        this.search = new PathSearch(0);
+        this.forwardArena = new PathArena();
+        this.loopArena = new PathArena();
+        this.addedEdges = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.removedEdges = new HashSet<>();
     }
 
     /**
@@ -34,8 +73,11 @@ public class Sfg {
     public void addNodes(final Node... nodes) {
         for (Node node : nodes) {
             this.nodeMap.put(node.getLabel(), node);
-            this.adj.put(node, new ArrayList<>());
+            List<Edge> dropped = this.adj.put(node, new ArrayList<>());
+            if (dropped != null)
+                dropped.forEach(this::logRemoval);
         }
+        this.graph = null;
     }
 
     /**
@@ -49,12 +91,77 @@ public class Sfg {
             for (Edge duplicate : this.adj.get(edge.getSrc()))
                 if (duplicate.getDest().equals(edge.getDest())) {
                     duplicate.setGain(duplicate.getGain() * edge.getGain());
+                    if (duplicate.getTransferFunction() != null
+                            || edge.getTransferFunction() != null)
+                        duplicate.setTransferFunction(getTransferFunction(
+                                duplicate).multiply(getTransferFunction(edge)));
                     isDuplicate = true;
                     break;
                 }
-            if (!isDuplicate)
+            if (!isDuplicate) {
                 this.adj.get(edge.getSrc()).add(edge);
+                if (this.plan != null)
+                    this.addedEdges.add(edge);
+            }
+        }
+        this.graph = null;
+    }
+
+    /**
+     * Removes edges from the SFG, an edge is matched by its source and
+     * destination nodes.
+     *
+     * @param edges edges to be removed.
+     */
+    public void removeEdges(final Edge... edges) {
+        for (Edge edge : edges) {
+            List<Edge> srcEdges = this.adj.get(edge.getSrc());
+            if (srcEdges == null)
+                continue;
+            for (Iterator<Edge> it = srcEdges.iterator(); it.hasNext(); ) {
+                Edge existing = it.next();
+                if (existing.getDest().equals(edge.getDest())) {
+                    it.remove();
+                    logRemoval(existing);
+                    break;
+                }
+            }
+        }
+        this.graph = null;
+    }
+
+    /**
+     * Removes nodes from the SFG along with every edge from or to them.
+     *
+     * @param nodes nodes to be removed.
+     */
+    public void removeNodes(final Node... nodes) {
+        for (Node node : nodes) {
+            List<Edge> nodeEdges = this.adj.remove(node);
+            if (nodeEdges == null)
+                continue;
+            this.nodeMap.remove(node.getLabel());
+            nodeEdges.forEach(this::logRemoval);
+            for (List<Edge> srcEdges : this.adj.values())
+                for (Iterator<Edge> it = srcEdges.iterator(); it.hasNext(); ) {
+                    Edge edge = it.next();
+                    if (edge.getDest().equals(node)) {
+                        it.remove();
+                        logRemoval(edge);
+                    }
+                }
         }
+        this.graph = null;
+    }
+
+    /**
+     * Keeps track of an edge removed since the last solve, an edge added
+     * since then is just forgotten. Edits are only kept while there's a plan
+     * to update, so both logs stay within the edges of the SFG.
+     */
+    private void logRemoval(final Edge edge) {
+        if (this.plan != null && !this.addedEdges.remove(edge))
+            this.removedEdges.add(edge);
     }
 
     /**
@@ -67,6 +174,10 @@ public class Sfg {
         this.nodeMap.clear();
         this.delta.clear();
         this.forwardPathsDeltas.clear();
+        this.graph = null;
+        this.plan = null;
+        this.addedEdges.clear();
+        this.removedEdges.clear();
     }
 
     /**
@@ -80,6 +191,50 @@ public class Sfg {
         return this.nodeMap.get(label);
     }
 
+    /**
+     * Sets how delta and the forward paths deltas are computed, defaults to
+     * {@link DeltaEngine#NON_TOUCHING_GROUPS}.
+     *
+     * @param deltaEngine engine to be used by later solves.
+     */
+    public void setDeltaEngine(final DeltaEngine deltaEngine) {
+        this.deltaEngine = deltaEngine;
+    }
+
+    /**
+     * Sets whether solves split their searches into tasks over the common
+     * {@link ForkJoinPool}, results are the same and in the same order as
+     * sequential solves.
+     *
+     * @param parallel true to solve in parallel.
+     */
+    public void setParallel(final boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets whether solves by other methods than Mason's formula are checked
+     * against {@link #solveGain(Node, Node)}, for debugging only as it costs
+     * a full Mason solve each time.
+     *
+     * @param crossCheck true to check results.
+     */
+    public void setCrossCheck(final boolean crossCheck) {
+        this.crossCheck = crossCheck;
+    }
+
+    /**
+     * Sets whether solves collapse chains of pass through nodes (one edge in,
+     * one edge out) before searching for forward paths and loops, so every
+     * search runs on a smaller graph. Paths and loops in the resulting
+     * {@link SfgMetadata} are expanded back to the original nodes.
+     *
+     * @param preReduction true to reduce the SFG first.
+     */
+    public void setPreReduction(final boolean preReduction) {
+        this.preReduction = preReduction;
+    }
+
     /**
      * Solves the SFG and returns the result enclosed in {@link SfgMetadata}.
      *
@@ -89,96 +244,660 @@ public class Sfg {
      * of forward paths and loops for this signal.
      */
     public SfgMetadata solve(final Node start, final Node end) {
-        this.forwardPaths = getForwardPaths(start, end, this.adj);
-        this.loops = getLoops(new ArrayList<>(this.nodeMap.values()), this.adj);
-        this.delta = getDelta(this.loops);
-        this.forwardPathsDeltas = getForwardPathsDeltas(this.forwardPaths, this.delta);
+        CompiledSfg graph = getGraph();
+        if (this.plan == null || !this.plan.fits(start, end,
+                this.preReduction))
+            this.plan = getPlan(graph, start, end);
+        else if (this.plan.getGraph() != graph)
+            updatePlan(graph);
+        else
+            this.plan.refreshGains();
+        this.addedEdges.clear();
+        this.removedEdges.clear();
+        this.forwardPaths = this.plan.getForwardPaths();
+        this.loops = new ArrayList<>();
+        //Loops never leave a strongly connected component, so delta is the
+        //product of each component's own delta.
+        List<List<Path>> componentsLoops = this.plan.getComponentsLoops();
+        for (List<Path> componentLoops : componentsLoops)
+            this.loops.addAll(componentLoops);
+        if (this.deltaEngine == this.plan.getDeltaEngine()) {
+            this.delta = this.plan.getDelta();
+            this.forwardPathsDeltas = this.plan.getForwardPathsDeltas();
+            if (this.forwardPathsDeltas == null) {
+                this.forwardPathsDeltas = getForwardPathsDeltas(
+                        this.forwardPaths, this.delta, getLoopIndices(
+                                componentsLoops));
+                this.plan.setDeltas(this.deltaEngine, this.delta,
+                        this.forwardPathsDeltas);
+            }
+        } else if (this.deltaEngine == DeltaEngine.INDEPENDENT_SETS) {
+            List<IndependencePolynomial> polynomials = getPolynomials(
+                    componentsLoops);
+            List<LoopIndex> loopIndices = getLoopIndices(componentsLoops);
+            this.delta = getDelta(polynomials, loopIndices, null);
+            this.forwardPathsDeltas = new HashMap<>();
+            for (Path path : this.forwardPaths)
+                this.forwardPathsDeltas.put(path, getDelta(polynomials,
+                        loopIndices, path));
+        } else if (this.deltaEngine == DeltaEngine.LAZY_NON_TOUCHING_GROUPS) {
+            NonTouchingGroups groups = new NonTouchingGroups(this.loops);
+            this.delta = groups.getDelta(groups.getNonTouching(null));
+            this.forwardPathsDeltas = new HashMap<>();
+            for (Path path : this.forwardPaths)
+                this.forwardPathsDeltas.put(path, groups.getDelta(
+                        groups.getNonTouching(path)));
+        } else {
+            this.delta = new Delta();
+            for (List<Path> componentLoops : componentsLoops)
+                this.delta.addFactors(getDelta(componentLoops));
+            this.forwardPathsDeltas = getForwardPathsDeltas(this.forwardPaths,
+                    this.delta, getLoopIndices(componentsLoops));
+            this.plan.setDeltas(this.deltaEngine, this.delta,
+                    this.forwardPathsDeltas);
+        }
         double res = getResult(this.delta, this.forwardPathsDeltas,
                 this.forwardPaths);
         return new SfgMetadata(res, this.loops, this.delta,
                 this.forwardPathsDeltas);
     }
 
-    private List<Path> getForwardPaths(final Node start, final Node end,
-                                       final Map<Node, List<Edge>> adj) {
-        return getForwardPathsUtil(start, end, new Stack<>(), new Stack<>(),
-                new HashMap<>(), new ArrayList<>(), adj);
-    }
-
-    private List<Path> getForwardPathsUtil(final Node curr, final Node end,
-                                           final Stack<Node> nodeStack,
-                                           final Stack<Edge> edgeStack,
-                                           final Map<Node, Boolean> visited,
-                                           final List<Path> ret,
-                                           final Map<Node, List<Edge>> adj) {
-        visited.put(curr, true);
-        nodeStack.push(curr);
-        for (Edge edge : adj.get(curr)) {
-            if (edge.getDest().equals(end)) {
-                Path path = new Path();
-                //Creates a new path, adds the last node and edge to it.
-                path.addNodes(nodeStack.toArray(new Node[nodeStack.size()]));
-                path.addNodes(end);
-                path.addEdges(edgeStack.toArray(new Edge[edgeStack.size()]));
-                path.addEdges(edge);
-                //Adds the new path to the forward paths.
-                ret.add(path);
-            } else if (!visited.containsKey(edge.getDest()) ||
-                    !visited.get(edge.getDest())) {
-                edgeStack.push(edge);
-                getForwardPathsUtil(edge.getDest(), end, nodeStack, edgeStack,
-                        visited, ret, adj);
-            }
+    /**
+     * Solves the SFG for the overall gain only, no forward paths, loops or
+     * non touching groups are built, use {@link #solve(Node, Node)} if
+     * they're needed.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return overall gain.
+     */
+    public double solveGain(final Node start, final Node end) {
+        CompiledSfg graph = getGraph();
+        return getGainSolver(graph).solve(graph.getIndex(start),
+                graph.getIndex(end));
+    }
+
+    /**
+     * Solves the SFG for the overall gain using a strategy,
+     * {@link SolveStrategy#AUTOMATIC} runs {@link #preflight(Node, Node)}
+     * first and uses the strategy it suggests.
+     *
+     * @param start    Starting node for the signal.
+     * @param end      Ending node for the signal.
+     * @param strategy way to compute the gain.
+     * @return overall gain.
+     */
+    public double solveGain(final Node start, final Node end,
+                            final SolveStrategy strategy) {
+        SolveStrategy chosen = strategy == SolveStrategy.AUTOMATIC
+                ? preflight(start, end).getStrategy() : strategy;
+        if (chosen == SolveStrategy.ALGEBRAIC)
+            return solveLinear(start, end);
+        if (chosen == SolveStrategy.MASON)
+            return solveGain(start, end);
+        CompiledSfg graph = getReducedGraph(getGraph(), start, end);
+        return getGainSolver(graph).solve(graph.getIndex(start),
+                graph.getIndex(end));
+    }
+
+    /**
+     * Compiles the overall gain of a signal into an expression over the
+     * gains of the edges, so it can be evaluated for many sets of gains
+     * without solving again. The expression stays valid while no nodes or
+     * edges are added or removed.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return overall gain expression.
+     */
+    public GainExpression compileGain(final Node start, final Node end) {
+        CompiledSfg graph = getGraph();
+        GainSolver solver = getGainSolver(graph);
+        solver.findForwardPaths(graph.getIndex(start), graph.getIndex(end));
+        return new GainExpression(graph, solver);
+    }
+
+    /**
+     * Evaluates the overall gain of a signal over a range of frequencies,
+     * with every edge gain replaced by its transfer function at s = jw.
+     * Forward paths and loops are found once and the compiled gain
+     * expression is evaluated for all frequencies at once.
+     *
+     * @param start       Starting node for the signal.
+     * @param end         Ending node for the signal.
+     * @param frequencies angular frequencies w, in rad/s.
+     * @return overall gain at every frequency, real and imaginary parts of
+     * frequency i are at indices 2 * i and 2 * i + 1.
+     */
+    public double[] sweep(final Node start, final Node end,
+                          final double[] frequencies) {
+        GainExpression expression = compileGain(start, end);
+        List<Edge> edges = expression.getEdges();
+        int count = frequencies.length;
+        double[] gains = new double[2 * edges.size() * count];
+        for (int i = 0; i < edges.size(); i++) {
+            RationalFunction function = getTransferFunction(edges.get(i));
+            for (int j = 0; j < count; j++)
+                function.evaluate(0, frequencies[j], gains,
+                        2 * (i * count + j));
         }
-        visited.put(curr, false);
-        nodeStack.pop();
-        if (!nodeStack.empty())
-            edgeStack.pop();
+        return expression.evaluateComplex(gains, count);
+    }
+
+    /**
+     * Finds how sensitive the overall gain of a signal is to the gain of
+     * every edge, as the derivative of the overall gain by each edge gain at
+     * the current gains. All derivatives come from one search and a single
+     * pass back over the compiled gain expression instead of a solve per
+     * edge.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return derivative of the overall gain by the gain of every edge.
+     */
+    public Map<Edge, Double> getSensitivities(final Node start,
+                                              final Node end) {
+        GainExpression expression = compileGain(start, end);
+        List<Edge> edges = expression.getEdges();
+        double[] gains = new double[edges.size()];
+        for (int i = 0; i < gains.length; i++)
+            gains[i] = edges.get(i).getGain();
+        double[] derivatives = expression.differentiate(gains);
+        Map<Edge, Double> ret = new LinkedHashMap<>();
+        for (int i = 0; i < derivatives.length; i++)
+            ret.put(edges.get(i), derivatives[i]);
         return ret;
     }
 
-    private List<Path> getLoops(final List<Node> nodeList,
-                                final Map<Node, List<Edge>> adj) {
-        Set<Path> loopSet = new HashSet<>();
-        for (Node node : nodeList)
-            loopSet.addAll(getLoopsUtil(node, node, new Stack<>(), new Stack<>(),
-                    new HashMap<>(), new ArrayList<>(), loopSet, adj));
-        return new ArrayList<>(loopSet);
-    }
-
-    private List<Path> getLoopsUtil(final Node curr, final Node dest,
-                                    final Stack<Node> nodeStack,
-                                    final Stack<Edge> edgeStack,
-                                    final Map<Node, Boolean> visited,
-                                    final List<Path> ret,
-                                    final Set<Path> checkedLoops,
-                                    final Map<Node, List<Edge>> adj) {
-        if (visited.containsKey(curr) && curr.equals(dest)) {
-            Path loop = new Path();
-            loop.addNodes(nodeStack.toArray(new Node[nodeStack.size()]));
-            loop.addEdges(edgeStack.toArray(new Edge[edgeStack.size()]));
-            if (!checkedLoops.contains(loop))
-                ret.add(loop);
-        }
-        for (Edge edge : adj.get(curr))
-            if (!visited.containsKey(edge.getDest()) || !visited.get(edge.getDest())) {
-                visited.put(edge.getDest(), true);
-                nodeStack.push(curr);
-                edgeStack.push(edge);
-                getLoopsUtil(edge.getDest(), dest, nodeStack, edgeStack, visited,
-                        ret, checkedLoops, adj);
-                visited.put(edge.getDest(), false);
-                nodeStack.pop();
-                edgeStack.pop();
+    /**
+     * Analyzes how the overall gain of a signal spreads when edge gains are
+     * drawn from distributions. Forward paths and loops are found once and
+     * the compiled gain expression is evaluated for chunks of samples at
+     * once, chunks are split over the common {@link ForkJoinPool} in
+     * parallel mode. Every chunk has its own random generator split from
+     * one seeded generator in chunk order, so streams of different chunks
+     * and seeds don't overlap and results don't depend on the mode.
+     *
+     * @param start         Starting node for the signal.
+     * @param end           Ending node for the signal.
+     * @param distributions distribution of the gain of some edges, the
+     *                      others keep their current gains.
+     * @param samples       number of samples to draw.
+     * @param seed          seed of the random generators.
+     * @return spread of the overall gain.
+     * @throws IllegalArgumentException if samples isn't positive or the SFG
+     *                                  doesn't keep an edge with a
+     *                                  distribution.
+     */
+    public ToleranceReport analyzeTolerance(final Node start, final Node end,
+            final Map<Edge, GainDistribution> distributions,
+            final int samples, final long seed) {
+        if (samples <= 0)
+            throw new IllegalArgumentException(
+                    "Expected a positive number of samples, got " + samples
+                            + ".");
+        GainExpression expression = compileGain(start, end);
+        List<Edge> edges = expression.getEdges();
+        GainDistribution[] edgesDistributions
+                = new GainDistribution[edges.size()];
+        for (Map.Entry<Edge, GainDistribution> entry
+                : distributions.entrySet()) {
+            int index = edges.indexOf(entry.getKey());
+            if (index == -1)
+                throw new IllegalArgumentException(
+                        "Edge with a distribution is not part of the SFG.");
+            edgesDistributions[index] = entry.getValue();
+        }
+        double[] results = new double[samples];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        SplittableRandom root = new SplittableRandom(seed);
+        for (int from = 0; from < samples; from += TOLERANCE_CHUNK) {
+            int chunkFrom = from;
+            Random random = new Random(root.split().nextLong());
+            Runnable task = () -> sampleChunk(expression, edges,
+                    edgesDistributions, random, chunkFrom,
+                    Math.min(TOLERANCE_CHUNK, samples - chunkFrom), results);
+            if (this.parallel)
+                tasks.add(ForkJoinPool.commonPool().submit(task));
+            else
+                task.run();
+        }
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+        return new ToleranceReport(results);
+    }
+
+    /**
+     * Solves the overall gain of a signal exactly as a function of s, with
+     * every edge gain replaced by its transfer function. Edges without one
+     * keep their constant gains.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return overall gain as a ratio of polynomials in s.
+     */
+    public RationalFunction solveSymbolic(final Node start, final Node end) {
+        GainExpression expression = compileGain(start, end);
+        List<Edge> edges = expression.getEdges();
+        RationalFunction[] functions = new RationalFunction[edges.size()];
+        for (int i = 0; i < functions.length; i++)
+            functions[i] = getTransferFunction(edges.get(i));
+        return expression.evaluate(functions);
+    }
+
+    /**
+     * Solves the overall gain of a signal as a function of the gain K of one
+     * edge, every other edge keeps its current gain. Each loop and non
+     * touching group takes K at most once, so the overall gain is a ratio of
+     * polynomials in K of low degree, found from a single search, and it
+     * can then be evaluated for any number of values of K cheaply.
+     *
+     * @param start     Starting node for the signal.
+     * @param end       Ending node for the signal.
+     * @param parameter edge whose gain varies.
+     * @return overall gain as a ratio of polynomials in K.
+     * @throws IllegalArgumentException if the SFG doesn't keep the edge.
+     */
+    public RationalFunction solveParametric(final Node start, final Node end,
+                                            final Edge parameter) {
+        GainExpression expression = compileGain(start, end);
+        List<Edge> edges = expression.getEdges();
+        //Duplicates were merged into the edge added first, so only edges
+        //kept by the SFG can be parameters.
+        int index = edges.indexOf(parameter);
+        if (index == -1)
+            throw new IllegalArgumentException(
+                    "Parameter edge is not part of the SFG.");
+        RationalFunction[] functions = new RationalFunction[edges.size()];
+        for (int i = 0; i < functions.length; i++)
+            functions[i] = i == index ? new RationalFunction(
+                    new double[]{0, 1}, new double[]{1})
+                    : new RationalFunction(edges.get(i).getGain());
+        return expression.evaluate(functions);
+    }
+
+    /**
+     * Gets the gain of an edge as a function of s, a constant function if it
+     * doesn't depend on s.
+     */
+    private RationalFunction getTransferFunction(final Edge edge) {
+        return edge.getTransferFunction() != null ? edge.getTransferFunction()
+                : new RationalFunction(edge.getGain());
+    }
+
+    /**
+     * Gathers cheap structural statistics of the SFG for a signal, without
+     * enumerating its loops or forward paths, to tell beforehand how
+     * expensive solving it is going to be.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return statistics, with the strategy suggested for the signal.
+     */
+    public SfgStatistics preflight(final Node start, final Node end) {
+        CompiledSfg graph = getGraph();
+        return new Preflight(graph, getReducedGraph(graph, start, end))
+                .getStatistics(graph.getIndex(start), graph.getIndex(end));
+    }
+
+    /**
+     * Solves the SFG for the overall gain by sparse Gaussian elimination of
+     * its node equations, taking polynomial time no matter how many loops or
+     * forward paths there are.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return overall gain, same as {@link SfgMetadata#getResult()}.
+     * @throws IllegalStateException if cross checking is on and Mason's
+     *                               formula gives a different result.
+     */
+    public double solveLinear(final Node start, final Node end) {
+        CompiledSfg graph = getGraph();
+        double ret = new LinearSolver(graph).solve(graph.getIndex(start),
+                graph.getIndex(end));
+        return crossCheck(ret, start, end);
+    }
+
+    /**
+     * Solves the SFG for the overall gain by eliminating its nodes one by
+     * one, least connected first, until a single edge from start to end is
+     * left.
+     *
+     * @param start Starting node for the signal.
+     * @param end   Ending node for the signal.
+     * @return overall gain, same as {@link SfgMetadata#getResult()}.
+     * @throws IllegalStateException if cross checking is on and Mason's
+     *                               formula gives a different result.
+     */
+    public double solveByElimination(final Node start, final Node end) {
+        CompiledSfg graph = getGraph();
+        double ret = new EliminationSolver(graph).solve(graph.getIndex(start),
+                graph.getIndex(end));
+        return crossCheck(ret, start, end);
+    }
+
+    private double crossCheck(final double result, final Node start,
+                              final Node end) {
+        if (!this.crossCheck)
+            return result;
+        double expected = solveGain(start, end);
+        boolean agrees = !Double.isFinite(expected) ? !Double.isFinite(result)
+                : Math.abs(result - expected) <= 1e-6 * Math.max(1,
+                Math.abs(expected));
+        if (!agrees)
+            throw new IllegalStateException("Solved gain " + result
+                    + " while Mason's formula gives " + expected + ".");
+        return result;
+    }
+
+    /**
+     * Gets the compiled SFG, it's only compiled again if nodes or edges
+     * were added since the last solve, otherwise just its gains are
+     * refreshed.
+     */
+    private CompiledSfg getGraph() {
+        if (this.graph == null)
+            this.graph = new CompiledSfg(new ArrayList<>(this.nodeMap.values()),
+                    this.adj);
+        else
+            this.graph.refreshGains();
+        return this.graph;
+    }
+
+    /**
+     * Finds the forward paths and loops of a signal, they're kept in a plan
+     * and reused while the compiled SFG and the signal stay the same.
+     */
+    private SolvePlan getPlan(final CompiledSfg graph, final Node start,
+                              final Node end) {
+        CompiledSfg searchGraph = this.preReduction ? getReducedGraph(graph,
+                start, end) : graph;
+        List<Path> pathList = getForwardPaths(searchGraph.getIndex(start),
+                searchGraph.getIndex(end), searchGraph);
+        for (Path path : pathList)
+            path.indexNodes(graph.getNodeIndex());
+        List<List<Path>> componentsLoops = getLoops(searchGraph);
+        for (List<Path> componentLoops : componentsLoops)
+            for (Path loop : componentLoops)
+                loop.indexNodes(graph.getNodeIndex());
+        return new SolvePlan(graph, start, end, this.preReduction, pathList,
+                componentsLoops);
+    }
+
+    /**
+     * Updates the plan to the edges added and removed since it was made, only
+     * forward paths and loops taking an added edge are searched for. Each
+     * one is found at the last added edge it takes, later added edges are
+     * excluded until their own search.
+     */
+    private void updatePlan(final CompiledSfg graph) {
+        //Added edges are searched in the order of their ids.
+        List<Integer> addedIds = new ArrayList<>();
+        boolean[] excluded = new boolean[graph.getTargets().length];
+        for (int i = 0; i < excluded.length; i++)
+            if (this.addedEdges.contains(graph.getEdge(i))) {
+                addedIds.add(i);
+                excluded[i] = true;
+            }
+        int start = graph.getIndex(this.plan.getStart());
+        int end = graph.getIndex(this.plan.getEnd());
+        int[] sources = graph.getSources();
+        int[] targets = graph.getTargets();
+        List<Path> pathList = new ArrayList<>();
+        List<Path> loopList = new ArrayList<>();
+        PathArena loopPaths = new PathArena();
+        this.search.ensureCapacity(graph.size());
+        for (int id : addedIds) {
+            excluded[id] = false;
+            this.forwardArena.clear();
+            this.search.findForwardPaths(graph, start, end, id, excluded,
+                    this.forwardArena);
+            pathList.addAll(getPaths(this.forwardArena, graph, false));
+            //A loop through the edge is the edge followed by a path back.
+            this.forwardArena.clear();
+            if (sources[id] == targets[id])
+                this.forwardArena.add(new int[]{id}, 1);
+            else {
+                loopPaths.clear();
+                this.search.findForwardPaths(graph, targets[id], sources[id],
+                        -1, excluded, loopPaths);
+                for (int i = 0; i < loopPaths.size(); i++) {
+                    int[] loop = new int[loopPaths.getLength(i) + 1];
+                    loop[0] = id;
+                    System.arraycopy(loopPaths.getEdges(),
+                            loopPaths.getOffset(i), loop, 1,
+                            loopPaths.getLength(i));
+                    this.forwardArena.add(loop, loop.length);
+                }
+            }
+            loopList.addAll(getPaths(this.forwardArena, graph, true));
+        }
+        this.plan.update(graph, this.removedEdges, pathList, loopList);
+    }
+
+    /**
+     * Gets the compiled SFG with its pass through nodes collapsed, it's only
+     * reduced again if the SFG or the start/end nodes changed.
+     */
+    private CompiledSfg getReducedGraph(final CompiledSfg graph,
+                                        final Node start, final Node end) {
+        if (this.reducedGraph != null && this.reducedGraph.getOriginal() == graph
+                && this.reducedGraph.getNodeIndex().containsKey(start)
+                && this.reducedGraph.getNodeIndex().containsKey(end)) {
+            this.reducedGraph.refreshGains();
+            return this.reducedGraph;
+        }
+        this.reducedGraph = graph.reduce(graph.getIndex(start),
+                graph.getIndex(end));
+        return this.reducedGraph;
+    }
+
+    /**
+     * Gets a gain solver for a compiled SFG, the last one for the full SFG
+     * and the last one for its reduction are kept, and only have their
+     * gains refreshed while the SFG's structure is the same.
+     */
+    private GainSolver getGainSolver(final CompiledSfg graph) {
+        boolean reduced = graph.getOriginal() != null;
+        GainSolver solver = reduced ? this.reducedGainSolver : this.gainSolver;
+        if (solver != null && solver.getGraph() == graph) {
+            solver.refreshGains();
+            return solver;
+        }
+        this.search.ensureCapacity(graph.size());
+        solver = new GainSolver(graph, this.search, this.loopArena);
+        if (reduced)
+            this.reducedGainSolver = solver;
+        else
+            this.gainSolver = solver;
+        return solver;
+    }
+
+    private List<Path> getForwardPaths(final int start, final int end,
+                                       final CompiledSfg graph) {
+        if (!this.parallel) {
+            this.search.ensureCapacity(graph.size());
+            this.forwardArena.clear();
+            this.search.findForwardPaths(graph, start, end, this.forwardArena);
+            return getPaths(this.forwardArena, graph, false);
+        }
+        //Each edge leaving start is searched by its own task.
+        List<Supplier<List<Path>>> tasks = new ArrayList<>();
+        int[] offsets = graph.getOffsets();
+        for (int edge = offsets[start]; edge < offsets[start + 1]; edge++) {
+            int first = edge;
+            tasks.add(() -> {
+                PathArena arena = new PathArena();
+                new PathSearch(graph.size()).findForwardPaths(graph, start,
+                        first, end, arena);
+                return getPaths(arena, graph, false);
+            });
+        }
+        return joinAll(tasks);
+    }
+
+    /**
+     * Finds the loops of every strongly connected component.
+     *
+     * @return loops grouped by component, components without loops are left
+     * out.
+     */
+    private List<List<Path>> getLoops(final CompiledSfg graph) {
+        List<Path> loopList;
+        int[] components = graph.getComponents();
+        int[] componentSizes = new int[graph.size()];
+        for (int component : components)
+            componentSizes[component]++;
+        //Each loop is reported once, from its least node.
+        if (!this.parallel) {
+            this.search.ensureCapacity(graph.size());
+            this.loopArena.clear();
+            for (int i = 0; i < graph.size(); i++)
+                if (canStartLoops(graph, i, componentSizes))
+                    this.search.findLoops(graph, i, this.loopArena);
+            loopList = getPaths(this.loopArena, graph, true);
+        } else {
+            //Searches from different start nodes share nothing, so start
+            //nodes are split into chunks searched by a task each, with its
+            //own search state.
+            int chunks = ForkJoinPool.commonPool().getParallelism()
+                    * LOOP_CHUNKS_PER_WORKER;
+            int chunkSize = Math.max(1, (graph.size() + chunks - 1) / chunks);
+            List<Supplier<List<Path>>> tasks = new ArrayList<>();
+            for (int from = 0; from < graph.size(); from += chunkSize) {
+                int chunkFrom = from;
+                int chunkTo = Math.min(graph.size(), from + chunkSize);
+                tasks.add(() -> {
+                    PathSearch search = new PathSearch(graph.size());
+                    PathArena arena = new PathArena();
+                    for (int i = chunkFrom; i < chunkTo; i++)
+                        if (canStartLoops(graph, i, componentSizes))
+                            search.findLoops(graph, i, arena);
+                    return getPaths(arena, graph, true);
+                });
             }
+            loopList = joinAll(tasks);
+        }
+        Map<Integer, List<Path>> ret = new TreeMap<>();
+        for (Path loop : loopList)
+            ret.computeIfAbsent(components[graph.getIndex(
+                    loop.getNodeList().get(0))], k -> new ArrayList<>()).add(loop);
+        return new ArrayList<>(ret.values());
+    }
+
+    /**
+     * Checks if a node can be on a loop, nodes alone in their strongly
+     * connected component only are if they have a self loop.
+     */
+    private boolean canStartLoops(final CompiledSfg graph, final int node,
+                                  final int[] componentSizes) {
+        if (componentSizes[graph.getComponents()[node]] > 1)
+            return true;
+        int[] offsets = graph.getOffsets();
+        int[] targets = graph.getTargets();
+        for (int edge = offsets[node]; edge < offsets[node + 1]; edge++)
+            if (targets[edge] == node)
+                return true;
+        return false;
+    }
+
+    /**
+     * Creates paths out of the edge ids stored in an arena.
+     *
+     * @param loops true if the paths are loops, so their last node isn't
+     *              repeated.
+     */
+    private List<Path> getPaths(final PathArena arena, final CompiledSfg graph,
+                                final boolean loops) {
+        List<Path> ret = new ArrayList<>(arena.size());
+        for (int i = 0; i < arena.size(); i++) {
+            if (graph.getOriginal() == null) {
+                ret.add(getPath(arena.getEdges(), arena.getOffset(i),
+                        arena.getLength(i), graph, loops));
+                continue;
+            }
+            //Expands reduced edges back to the chains they stand for.
+            List<Integer> chainEdges = new ArrayList<>();
+            for (int j = arena.getOffset(i); j < arena.getOffset(i)
+                    + arena.getLength(i); j++)
+                for (int edge : graph.getChain(arena.getEdges()[j]))
+                    chainEdges.add(edge);
+            int[] edges = new int[chainEdges.size()];
+            for (int j = 0; j < edges.length; j++)
+                edges[j] = chainEdges.get(j);
+            ret.add(getPath(edges, 0, edges.length, graph.getOriginal(),
+                    loops));
+        }
+        return ret;
+    }
+
+    private Path getPath(final int[] edges, final int offset, final int length,
+                         final CompiledSfg graph, final boolean loop) {
+        int[] sources = graph.getSources();
+        int[] targets = graph.getTargets();
+        Node[] pathNodes = new Node[loop ? length : length + 1];
+        Edge[] pathEdges = new Edge[length];
+        for (int j = 0; j < length; j++) {
+            pathNodes[j] = graph.getNode(sources[edges[offset + j]]);
+            pathEdges[j] = graph.getEdge(edges[offset + j]);
+        }
+        if (!loop)
+            pathNodes[length] = graph.getNode(
+                    targets[edges[offset + length - 1]]);
+        Path path = new Path();
+        path.addNodes(pathNodes);
+        path.addEdges(pathEdges);
+        return path;
+    }
+
+    /**
+     * Draws a chunk of samples and evaluates their overall gains, gains are
+     * laid out column wise for {@link GainExpression#evaluate(double[], int)}.
+     */
+    private void sampleChunk(final GainExpression expression,
+                             final List<Edge> edges,
+                             final GainDistribution[] distributions,
+                             final Random random, final int from,
+                             final int count, final double[] results) {
+        double[] gains = new double[edges.size() * count];
+        for (int i = 0; i < distributions.length; i++)
+            if (distributions[i] == null)
+                Arrays.fill(gains, i * count, (i + 1) * count,
+                        edges.get(i).getGain());
+            else
+                for (int j = 0; j < count; j++)
+                    gains[i * count + j] = distributions[i].sample(random);
+        System.arraycopy(expression.evaluate(gains, count), 0, results, from,
+                count);
+    }
+
+    /**
+     * Runs tasks over the common pool and concatenates their results in
+     * the order of the tasks.
+     */
+    private <T> List<T> joinAll(final List<Supplier<List<T>>> tasks) {
+        List<ForkJoinTask<List<T>>> forked = new ArrayList<>();
+        for (Supplier<List<T>> task : tasks)
+            forked.add(ForkJoinPool.commonPool().submit(task::get));
+        List<T> ret = new ArrayList<>();
+        for (ForkJoinTask<List<T>> task : forked)
+            ret.addAll(task.join());
         return ret;
     }
 
     private Delta getDelta(final List<Path> loops) {
         Delta ret = new Delta();
+        TouchMatrix touchMatrix = new TouchMatrix(loops);
         for (int i = 1; i <= loops.size(); i++) {
-            LoopGroupContainer nextContainer = getNextNonTouchingContainer(i, 0,
-                    new LoopGroupContainer(i), new LoopGroup(), loops);
+            int degree = i;
+            LoopGroupContainer nextContainer = this.parallel
+                    ? ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(
+                    () -> getNextNonTouchingContainer(degree, 0,
+                            new LoopGroupContainer(degree), new LoopGroup(),
+                            new BitSet(), touchMatrix, loops)))
+                    : getNextNonTouchingContainer(i, 0,
+                    new LoopGroupContainer(i), new LoopGroup(), new BitSet(),
+                    touchMatrix, loops);
             if (nextContainer.empty())
                 break;
             ret.addContainers(nextContainer);
@@ -186,40 +905,166 @@ public class Sfg {
         return ret;
     }
 
+    /**
+     * Collects every group of rem non touching loops out of loops[i..],
+     * blocked holds the loops touching any loop already in the group.
+     */
     private LoopGroupContainer getNextNonTouchingContainer(final int rem,
                                                            final int i, final
                                                            LoopGroupContainer ret,
                                                            final LoopGroup loopGroup,
+                                                           final BitSet blocked,
+                                                           final TouchMatrix
+                                                                   touchMatrix,
                                                            final List<Path> loops) {
         if (rem == 0) {
             ret.addLoopGroups((LoopGroup) loopGroup.clone());
             return ret;
         } else if (i == loops.size())
             return ret;
-        if (!loopGroup.touches(loops.get(i))) {
+        if (this.parallel && rem > 1 && !blocked.get(i)
+                && loops.size() - i >= PARALLEL_THRESHOLD)
+            return forkNextNonTouchingContainer(rem, i, ret, loopGroup,
+                    blocked, touchMatrix, loops);
+        if (!blocked.get(i)) {
+            BitSet nextBlocked = (BitSet) blocked.clone();
+            nextBlocked.or(touchMatrix.getTouching(i));
             loopGroup.addLoops(loops.get(i));
-            getNextNonTouchingContainer(rem - 1, i + 1, ret, loopGroup, loops);
+            getNextNonTouchingContainer(rem - 1, i + 1, ret, loopGroup,
+                    nextBlocked, touchMatrix, loops);
             loopGroup.removeLoops(loops.get(i));
         }
-        getNextNonTouchingContainer(rem, i + 1, ret, loopGroup, loops);
+        getNextNonTouchingContainer(rem, i + 1, ret, loopGroup, blocked,
+                touchMatrix, loops);
         return ret;
     }
 
+    /**
+     * Searches the subtree taking loops[i] in a forked task while the
+     * caller searches the one skipping it, each with its own group and
+     * container, partial containers are then merged in sequential order.
+     */
+    private LoopGroupContainer forkNextNonTouchingContainer(final int rem,
+                                                            final int i,
+                                                            final
+                                                            LoopGroupContainer ret,
+                                                            final LoopGroup loopGroup,
+                                                            final BitSet blocked,
+                                                            final TouchMatrix
+                                                                    touchMatrix,
+                                                            final List<Path> loops) {
+        LoopGroup taken = (LoopGroup) loopGroup.clone();
+        taken.addLoops(loops.get(i));
+        BitSet nextBlocked = (BitSet) blocked.clone();
+        nextBlocked.or(touchMatrix.getTouching(i));
+        ForkJoinTask<LoopGroupContainer> takenTask = ForkJoinTask.adapt(
+                () -> getNextNonTouchingContainer(rem - 1, i + 1,
+                        new LoopGroupContainer(ret.getDegree()), taken,
+                        nextBlocked, touchMatrix, loops)).fork();
+        LoopGroupContainer skipped = getNextNonTouchingContainer(rem, i + 1,
+                new LoopGroupContainer(ret.getDegree()), loopGroup, blocked,
+                touchMatrix, loops);
+        List<LoopGroup> takenGroups = takenTask.join().getGroupList();
+        ret.addLoopGroups(takenGroups.toArray(new LoopGroup[takenGroups.size()]));
+        ret.addLoopGroups(skipped.getGroupList().toArray(
+                new LoopGroup[skipped.size()]));
+        return ret;
+    }
+
+    private List<IndependencePolynomial> getPolynomials(
+            final List<List<Path>> componentsLoops) {
+        List<IndependencePolynomial> ret = new ArrayList<>();
+        for (List<Path> componentLoops : componentsLoops) {
+            double[] loopGains = new double[componentLoops.size()];
+            for (int i = 0; i < loopGains.length; i++)
+                loopGains[i] = componentLoops.get(i).getGain();
+            ret.add(new IndependencePolynomial(new TouchMatrix(componentLoops),
+                    loopGains));
+        }
+        return ret;
+    }
+
+    private List<LoopIndex> getLoopIndices(
+            final List<List<Path>> componentsLoops) {
+        List<LoopIndex> ret = new ArrayList<>();
+        for (List<Path> componentLoops : componentsLoops)
+            ret.add(new LoopIndex(componentLoops));
+        return ret;
+    }
+
+    /**
+     * Computes delta of the loops not touching a path using the
+     * independence polynomial of every component, or the whole delta if
+     * path is null.
+     */
+    private Delta getDelta(final List<IndependencePolynomial> polynomials,
+                           final List<LoopIndex> loopIndices,
+                           final Path path) {
+        Delta ret = new Delta();
+        for (int i = 0; i < polynomials.size(); i++) {
+            Delta factor = new Delta();
+            factor.addDegreeGains(polynomials.get(i).getCoefficients(
+                    loopIndices.get(i).getNonTouching(path)));
+            ret.addFactors(factor);
+        }
+        return ret;
+    }
+
+    /**
+     * Computes every forward path's delta, a component's part of the delta
+     * only depends on which of its loops the path doesn't touch, so it's
+     * cached by that set and shared between paths.
+     */
     private Map<Path, Delta> getForwardPathsDeltas(final List<Path> forwardPaths,
-                                                   final Delta delta) {
+                                                   final Delta delta,
+                                                   final List<LoopIndex>
+                                                           loopIndices) {
+        List<Map<BitSet, Delta>> caches = new ArrayList<>();
+        for (int i = 0; i < loopIndices.size(); i++)
+            caches.add(new ConcurrentHashMap<>());
         Map<Path, Delta> ret = new HashMap<>();
-        for (Path path : forwardPaths) {
-            Delta pathDelta = new Delta();
-            for (LoopGroupContainer container : delta.getContainerList()) {
-                LoopGroupContainer pathGroupContainer = new LoopGroupContainer(
-                        container.getDegree());
-                for (LoopGroup group : container.getGroupList())
-                    if (!group.touches(path))
-                        pathGroupContainer.addLoopGroups(group);
-                if (!pathGroupContainer.empty())
-                    pathDelta.addContainers(pathGroupContainer);
-            }
-            ret.put(path, pathDelta);
+        if (this.parallel) {
+            List<Supplier<List<Delta>>> tasks = new ArrayList<>();
+            for (Path path : forwardPaths)
+                tasks.add(() -> Collections.singletonList(getPathDelta(path,
+                        delta.getFactorList(), loopIndices, caches)));
+            List<Delta> pathDeltas = joinAll(tasks);
+            for (int i = 0; i < forwardPaths.size(); i++)
+                ret.put(forwardPaths.get(i), pathDeltas.get(i));
+            return ret;
+        }
+        for (Path path : forwardPaths)
+            ret.put(path, getPathDelta(path, delta.getFactorList(), loopIndices,
+                    caches));
+        return ret;
+    }
+
+    private Delta getPathDelta(final Path path, final List<Delta> factors,
+                               final List<LoopIndex> loopIndices,
+                               final List<Map<BitSet, Delta>> caches) {
+        Delta ret = new Delta();
+        for (int i = 0; i < factors.size(); i++) {
+            Delta factor = factors.get(i);
+            BitSet nonTouching = loopIndices.get(i).getNonTouching(path);
+            if (nonTouching.cardinality() == loopIndices.get(i).getLoopCount())
+                ret.addFactors(factor);
+            else
+                ret.addFactors(caches.get(i).computeIfAbsent(nonTouching,
+                        k -> getPathDelta(path, factor)));
+        }
+        return ret;
+    }
+
+    private Delta getPathDelta(final Path path, final Delta delta) {
+        Delta ret = new Delta();
+        for (LoopGroupContainer container : delta.getContainerList()) {
+            LoopGroupContainer pathGroupContainer = new LoopGroupContainer(
+                    container.getDegree());
+            for (LoopGroup group : container.getGroupList())
+                if (!group.touches(path))
+                    pathGroupContainer.addLoopGroups(group);
+            if (!pathGroupContainer.empty())
+                ret.addContainers(pathGroupContainer);
         }
         return ret;
     }
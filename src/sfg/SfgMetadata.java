@@ -11,6 +11,9 @@ import java.util.Map;
  * list of loops copies.
  * It's safe to change any of the values of the metadata without affecting
  * the actual SFG.
+ * When solved with {@link DeltaEngine#LAZY_NON_TOUCHING_GROUPS}, non touching
+ * combinations are lazy views shared instead of copied, only their gains are
+ * computed upfront, and the groups they enumerate hold copies of the loops.
  */
 public class SfgMetadata {
     private double result = 0;
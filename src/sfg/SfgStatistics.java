@@ -0,0 +1,118 @@
+package sfg;
+
+/**
+ * A representation of cheap structural statistics of the SFG for a signal,
+ * gathered before solving it to tell how expensive each
+ * {@link SolveStrategy} is going to be.
+ * Loop and forward path counts are estimated by sampling random paths, so
+ * they're only meant to tell orders of magnitude apart.
+ */
+public class SfgStatistics {
+    private int nodeCount = 0;
+    private int edgeCount = 0;
+    private int reducedNodeCount = 0;
+    private int reducedEdgeCount = 0;
+    private int[] componentSizes = null;
+    private int cyclomaticNumber = 0;
+    private double estimatedLoops = 0;
+    private double estimatedForwardPaths = 0;
+    private double estimatedGroups = 0;
+    private SolveStrategy strategy = null;
+
+    SfgStatistics(final int nodeCount, final int edgeCount,
+                  final int reducedNodeCount, final int reducedEdgeCount,
+                  final int[] componentSizes, final int cyclomaticNumber,
+                  final double estimatedLoops,
+                  final double estimatedForwardPaths,
+                  final double estimatedGroups,
+                  final SolveStrategy strategy) {
+        this.nodeCount = nodeCount;
+        this.edgeCount = edgeCount;
+        this.reducedNodeCount = reducedNodeCount;
+        this.reducedEdgeCount = reducedEdgeCount;
+        this.componentSizes = componentSizes;
+        this.cyclomaticNumber = cyclomaticNumber;
+        this.estimatedLoops = estimatedLoops;
+        this.estimatedForwardPaths = estimatedForwardPaths;
+        this.estimatedGroups = estimatedGroups;
+        this.strategy = strategy;
+    }
+
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    public int getEdgeCount() {
+        return this.edgeCount;
+    }
+
+    /**
+     * Gets the number of nodes left after collapsing pass through nodes.
+     *
+     * @return number of nodes searched by {@link SolveStrategy#REDUCED_MASON}.
+     */
+    public int getReducedNodeCount() {
+        return this.reducedNodeCount;
+    }
+
+    /**
+     * Gets the number of edges left after collapsing pass through nodes.
+     *
+     * @return number of edges searched by {@link SolveStrategy#REDUCED_MASON}.
+     */
+    public int getReducedEdgeCount() {
+        return this.reducedEdgeCount;
+    }
+
+    /**
+     * Gets the sizes of the strongly connected components, loops never leave
+     * a component so only the ones with more than a node, or a self loop,
+     * can have several loops.
+     *
+     * @return components sizes, largest first.
+     */
+    public int[] getComponentSizes() {
+        return this.componentSizes.clone();
+    }
+
+    /**
+     * Gets the number of independent cycles of the SFG, edges - nodes +
+     * connected components, ignoring edges directions. The number of loops
+     * can grow exponentially with it.
+     *
+     * @return cyclomatic number.
+     */
+    public int getCyclomaticNumber() {
+        return this.cyclomaticNumber;
+    }
+
+    public double getEstimatedLoops() {
+        return this.estimatedLoops;
+    }
+
+    public double getEstimatedForwardPaths() {
+        return this.estimatedForwardPaths;
+    }
+
+    /**
+     * Gets the estimated number of non touching loop groups delta is made
+     * of, summed over the strongly connected components since delta is
+     * factored over them. It grows exponentially with the loops of a
+     * component that don't touch each other.
+     *
+     * @return estimated number of groups.
+     */
+    public double getEstimatedGroups() {
+        return this.estimatedGroups;
+    }
+
+    /**
+     * Gets the strategy {@link SolveStrategy#AUTOMATIC} picks for the
+     * signal, the one with the least estimated cost.
+     *
+     * @return suggested strategy.
+     */
+    public SolveStrategy getStrategy() {
+        return this.strategy;
+    }
+}
@@ -0,0 +1,278 @@
+package sfg;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The parts of solving a signal which only depend on the structure of the
+ * SFG: forward paths and loops, kept as edge id lists of the compiled SFG,
+ * and the non touching groups built of them. While the structure is the
+ * same, solving again only refreshes their gains, and when edges are added
+ * or removed the plan is updated instead of searching again.
+ * Loops are grouped so that loops of different groups never touch, and
+ * kept deltas have a factor per group, in the same order.
+ */
+class SolvePlan {
+    private CompiledSfg graph = null;
+    private Node start = null;
+    private Node end = null;
+    private boolean preReduction = false;
+    private List<Path> forwardPaths = null;
+    private List<List<Path>> componentsLoops = null;
+    private int[][] forwardPathsEdges = null;
+    private int[][] loopsEdges = null;
+    private DeltaEngine deltaEngine = null;
+    private Delta delta = null;
+    private List<Delta> factors = null;
+    private Map<Path, Delta> forwardPathsDeltas = null;
+
+    /**
+     * Creates a plan of found paths and loops.
+     *
+     * @param graph           compiled SFG the paths and loops were found in.
+     * @param start           starting node of the signal.
+     * @param end             ending node of the signal.
+     * @param preReduction    whether the SFG was reduced before searching.
+     * @param forwardPaths    forward paths of the signal.
+     * @param componentsLoops loops grouped by component.
+     */
+    SolvePlan(final CompiledSfg graph, final Node start, final Node end,
+              final boolean preReduction, final List<Path> forwardPaths,
+              final List<List<Path>> componentsLoops) {
+        this.graph = graph;
+        this.start = start;
+        this.end = end;
+        this.preReduction = preReduction;
+        this.forwardPaths = forwardPaths;
+        this.componentsLoops = componentsLoops;
+        indexEdges();
+    }
+
+    /**
+     * Checks if this plan can be reused for a solve, possibly after being
+     * updated to a changed SFG.
+     *
+     * @return true if it was made for the same signal.
+     */
+    boolean fits(final Node start, final Node end, final boolean preReduction) {
+        return this.start == start && this.end == end
+                && this.preReduction == preReduction;
+    }
+
+    CompiledSfg getGraph() {
+        return this.graph;
+    }
+
+    Node getStart() {
+        return this.start;
+    }
+
+    Node getEnd() {
+        return this.end;
+    }
+
+    /**
+     * Updates the plan to a changed SFG, forward paths and loops having a
+     * removed edge are dropped along with their groups, and new ones are
+     * added with the groups they make. Deltas of forward paths have to be
+     * set again.
+     *
+     * @param graph             compiled SFG after the change.
+     * @param removedEdges      edges removed since the plan was made.
+     * @param addedForwardPaths forward paths having an added edge.
+     * @param addedLoops        loops having an added edge.
+     */
+    void update(final CompiledSfg graph, final Set<Edge> removedEdges,
+                final List<Path> addedForwardPaths,
+                final List<Path> addedLoops) {
+        this.graph = graph;
+        this.forwardPaths.removeIf(path -> hasAny(path, removedEdges));
+        this.forwardPaths.addAll(addedForwardPaths);
+        for (Path path : this.forwardPaths)
+            path.indexNodes(graph.getNodeIndex());
+        Set<Path> removedLoops = new HashSet<>();
+        for (int i = this.componentsLoops.size() - 1; i >= 0; i--) {
+            List<Path> componentLoops = this.componentsLoops.get(i);
+            for (Path loop : componentLoops)
+                if (hasAny(loop, removedEdges))
+                    removedLoops.add(loop);
+                else
+                    loop.indexNodes(graph.getNodeIndex());
+            componentLoops.removeAll(removedLoops);
+            if (componentLoops.isEmpty()) {
+                this.componentsLoops.remove(i);
+                if (this.factors != null)
+                    this.factors.remove(i);
+            }
+        }
+        if (this.factors != null)
+            for (Delta factor : this.factors)
+                factor.removeLoops(removedLoops);
+        for (Path loop : addedLoops) {
+            loop.indexNodes(graph.getNodeIndex());
+            addLoop(loop);
+        }
+        if (this.factors != null) {
+            this.delta = new Delta();
+            this.delta.addFactors(this.factors.toArray(
+                    new Delta[this.factors.size()]));
+            this.forwardPathsDeltas = null;
+        }
+        indexEdges();
+        refreshGains();
+    }
+
+    /**
+     * Recomputes gains of the paths and loops from the gains of the
+     * compiled SFG, and of the kept non touching groups.
+     */
+    void refreshGains() {
+        double[] gains = this.graph.getGains();
+        refreshGains(this.forwardPaths, this.forwardPathsEdges, gains);
+        refreshGains(getLoops(), this.loopsEdges, gains);
+        if (this.delta == null)
+            return;
+        this.delta.refresh();
+        if (this.forwardPathsDeltas != null)
+            for (Delta pathDelta : this.forwardPathsDeltas.values())
+                pathDelta.refresh();
+    }
+
+    List<Path> getForwardPaths() {
+        return this.forwardPaths;
+    }
+
+    List<List<Path>> getComponentsLoops() {
+        return this.componentsLoops;
+    }
+
+    /**
+     * Keeps the non touching groups of a solve, only deltas built by
+     * {@link DeltaEngine#NON_TOUCHING_GROUPS} are kept, others are cheap to
+     * build from the loops again.
+     *
+     * @param deltaEngine        engine the deltas were built by.
+     * @param delta              delta of the SFG.
+     * @param forwardPathsDeltas delta of every forward path.
+     */
+    void setDeltas(final DeltaEngine deltaEngine, final Delta delta,
+                   final Map<Path, Delta> forwardPathsDeltas) {
+        if (deltaEngine != DeltaEngine.NON_TOUCHING_GROUPS)
+            return;
+        this.deltaEngine = deltaEngine;
+        this.delta = delta;
+        this.factors = new ArrayList<>(delta.getFactorList());
+        this.forwardPathsDeltas = forwardPathsDeltas;
+    }
+
+    DeltaEngine getDeltaEngine() {
+        return this.deltaEngine;
+    }
+
+    Delta getDelta() {
+        return this.delta;
+    }
+
+    Map<Path, Delta> getForwardPathsDeltas() {
+        return this.forwardPathsDeltas;
+    }
+
+    /**
+     * Adds a loop to the group of loops it touches, groups touching it are
+     * merged. Kept non touching groups of the merged factors are combined,
+     * and every combination not touching the loop is also taken with it.
+     */
+    private void addLoop(final Path loop) {
+        List<Path> merged = new ArrayList<>();
+        List<Delta> mergedFactors = new ArrayList<>();
+        for (int i = this.componentsLoops.size() - 1; i >= 0; i--) {
+            boolean touches = false;
+            for (Path other : this.componentsLoops.get(i))
+                if (other.touches(loop)) {
+                    touches = true;
+                    break;
+                }
+            if (!touches)
+                continue;
+            merged.addAll(0, this.componentsLoops.remove(i));
+            if (this.factors != null)
+                mergedFactors.add(0, this.factors.remove(i));
+        }
+        merged.add(loop);
+        this.componentsLoops.add(merged);
+        if (this.factors == null)
+            return;
+        Delta product = new Delta();
+        product.addFactors(mergedFactors.toArray(
+                new Delta[mergedFactors.size()]));
+        Map<Integer, LoopGroupContainer> byDegree = new TreeMap<>();
+        LoopGroup single = new LoopGroup();
+        single.addLoops(loop);
+        byDegree.computeIfAbsent(1, LoopGroupContainer::new)
+                .addLoopGroups(single);
+        for (LoopGroupContainer container : product.getContainerList())
+            for (LoopGroup group : container.getGroupList()) {
+                byDegree.computeIfAbsent(container.getDegree(),
+                        LoopGroupContainer::new).addLoopGroups(group);
+                if (group.touches(loop))
+                    continue;
+                LoopGroup grown = (LoopGroup) group.clone();
+                grown.addLoops(loop);
+                byDegree.computeIfAbsent(container.getDegree() + 1,
+                        LoopGroupContainer::new).addLoopGroups(grown);
+            }
+        Delta factor = new Delta();
+        factor.addContainers(byDegree.values().toArray(
+                new LoopGroupContainer[byDegree.size()]));
+        this.factors.add(factor);
+    }
+
+    private boolean hasAny(final Path path, final Set<Edge> edges) {
+        for (Edge edge : path.getEdgeList())
+            if (edges.contains(edge))
+                return true;
+        return false;
+    }
+
+    private void indexEdges() {
+        Map<Edge, Integer> edgeIds = new IdentityHashMap<>();
+        for (int i = 0; i < this.graph.getTargets().length; i++)
+            edgeIds.put(this.graph.getEdge(i), i);
+        this.forwardPathsEdges = getEdges(this.forwardPaths, edgeIds);
+        this.loopsEdges = getEdges(getLoops(), edgeIds);
+    }
+
+    private List<Path> getLoops() {
+        List<Path> ret = new ArrayList<>();
+        for (List<Path> componentLoops : this.componentsLoops)
+            ret.addAll(componentLoops);
+        return ret;
+    }
+
+    private int[][] getEdges(final List<Path> paths,
+                             final Map<Edge, Integer> edgeIds) {
+        int[][] ret = new int[paths.size()][];
+        for (int i = 0; i < ret.length; i++) {
+            List<Edge> edgeList = paths.get(i).getEdgeList();
+            ret[i] = new int[edgeList.size()];
+            for (int j = 0; j < ret[i].length; j++)
+                ret[i][j] = edgeIds.get(edgeList.get(j));
+        }
+        return ret;
+    }
+
+    private void refreshGains(final List<Path> paths, final int[][] edges,
+                              final double[] gains) {
+        for (int i = 0; i < edges.length; i++) {
+            double gain = 1;
+            for (int edge : edges[i])
+                gain *= gains[edge];
+            paths.get(i).setGain(gain);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package sfg;
+
+/**
+ * The ways a {@link Sfg} can compute the overall gain of a signal.
+ */
+public enum SolveStrategy {
+    /**
+     * Enumerates forward paths and loops of the whole SFG and applies
+     * Mason's formula.
+     */
+    MASON,
+    /**
+     * Applies Mason's formula like {@link #MASON}, but searches for paths and
+     * loops after collapsing chains of pass through nodes.
+     */
+    REDUCED_MASON,
+    /**
+     * Solves the node equations of the SFG by sparse Gaussian elimination,
+     * cost doesn't depend on the number of paths or loops.
+     */
+    ALGEBRAIC,
+    /**
+     * Picks one of the other strategies from the estimated costs in
+     * {@link SfgStatistics}.
+     */
+    AUTOMATIC
+}
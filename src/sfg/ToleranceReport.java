@@ -0,0 +1,117 @@
+package sfg;
+
+import java.util.Arrays;
+
+/**
+ * A representation of the spread of the overall gain of a signal over
+ * gains drawn from the distributions of the edges. Samples whose overall
+ * gain isn't finite, where delta vanishes, are counted as failures and left
+ * out of every other figure.
+ */
+public class ToleranceReport {
+    private double[] results = null;
+    private int failureCount = 0;
+    private double mean = 0;
+    private double standardDeviation = 0;
+
+    /**
+     * Creates a report of drawn samples.
+     *
+     * @param samples overall gain of every sample, sorted in place.
+     */
+    ToleranceReport(final double[] samples) {
+        Arrays.sort(samples);
+        //Infinities sort to the ends and NaNs after them.
+        int from = 0;
+        while (from < samples.length
+                && samples[from] == Double.NEGATIVE_INFINITY)
+            from++;
+        int to = from;
+        while (to < samples.length && samples[to] != Double.POSITIVE_INFINITY
+                && !Double.isNaN(samples[to]))
+            to++;
+        this.results = Arrays.copyOfRange(samples, from, to);
+        this.failureCount = samples.length - this.results.length;
+        double sum = 0;
+        for (double result : this.results)
+            sum += result;
+        this.mean = sum / this.results.length;
+        double squares = 0;
+        for (double result : this.results)
+            squares += (result - this.mean) * (result - this.mean);
+        this.standardDeviation = Math.sqrt(squares / this.results.length);
+    }
+
+    /**
+     * Gets the number of samples with a finite overall gain.
+     *
+     * @return number of samples.
+     */
+    public int getSampleCount() {
+        return this.results.length;
+    }
+
+    public int getFailureCount() {
+        return this.failureCount;
+    }
+
+    public double getMean() {
+        return this.mean;
+    }
+
+    public double getStandardDeviation() {
+        return this.standardDeviation;
+    }
+
+    public double getMin() {
+        return this.results.length == 0 ? Double.NaN : this.results[0];
+    }
+
+    public double getMax() {
+        return this.results.length == 0 ? Double.NaN
+                : this.results[this.results.length - 1];
+    }
+
+    /**
+     * Gets the overall gain below which a share of the samples fall,
+     * interpolating between the nearest samples.
+     *
+     * @param percent share of the samples, from 0 to 100.
+     * @return percentile.
+     */
+    public double getPercentile(final double percent) {
+        if (!(percent >= 0 && percent <= 100))
+            throw new IllegalArgumentException(
+                    "Percentiles are between 0 and 100, got " + percent + ".");
+        if (this.results.length == 0)
+            return Double.NaN;
+        double position = percent / 100 * (this.results.length - 1);
+        int lower = (int) position;
+        int upper = Math.min(lower + 1, this.results.length - 1);
+        return this.results[lower] + (position - lower)
+                * (this.results[upper] - this.results[lower]);
+    }
+
+    /**
+     * Counts the samples falling in equal bins between the least and the
+     * greatest overall gains, the greatest falls in the last bin.
+     *
+     * @param bins number of bins.
+     * @return number of samples in every bin.
+     */
+    public int[] getHistogram(final int bins) {
+        if (bins < 1)
+            throw new IllegalArgumentException(
+                    "Histograms need at least one bin, got " + bins + ".");
+        int[] ret = new int[bins];
+        if (this.results.length == 0)
+            return ret;
+        double min = getMin();
+        double width = (getMax() - min) / bins;
+        for (double result : this.results) {
+            int bin = width == 0 ? 0 : (int) ((result - min) / width);
+            ret[Math.min(bin, bins - 1)]++;
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,121 @@
+package sfg;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A precomputed loop by loop touching matrix, row i holds the indices of
+ * every loop touching loop i (including i itself).
+ */
+class TouchMatrix {
+    private BitSet[] touching = null;
+
+    /**
+     * Creates the matrix, loops must have their nodes indexed already.
+     *
+     * @param loops loops of the SFG.
+     */
+    TouchMatrix(final List<Path> loops) {
+        this.touching = new BitSet[loops.size()];
+        for (int i = 0; i < loops.size(); i++) {
+            this.touching[i] = new BitSet(loops.size());
+            this.touching[i].set(i);
+        }
+        for (int i = 0; i < loops.size(); i++)
+            for (int j = i + 1; j < loops.size(); j++)
+                if (loops.get(i).touches(loops.get(j))) {
+                    this.touching[i].set(j);
+                    this.touching[j].set(i);
+                }
+    }
+
+    /**
+     * Creates the matrix from packed node masks, loop i owns words
+     * i * words..(i + 1) * words - 1 of masks.
+     *
+     * @param masks packed node masks of the loops.
+     * @param words number of words per mask.
+     * @param count number of loops.
+     */
+    TouchMatrix(final long[] masks, final int words, final int count) {
+        this.touching = new BitSet[count];
+        for (int i = 0; i < count; i++) {
+            this.touching[i] = new BitSet(count);
+            this.touching[i].set(i);
+        }
+        for (int i = 0; i < count; i++)
+            for (int j = i + 1; j < count; j++)
+                for (int k = 0; k < words; k++)
+                    if ((masks[i * words + k] & masks[j * words + k]) != 0) {
+                        this.touching[i].set(j);
+                        this.touching[j].set(i);
+                        break;
+                    }
+    }
+
+    /**
+     * Gets the loops touching a loop.
+     *
+     * @param loop index of the loop.
+     * @return bitset of the touching loops indices.
+     */
+    BitSet getTouching(final int loop) {
+        return this.touching[loop];
+    }
+
+    /**
+     * Splits loops into groups where loops of different groups never touch.
+     *
+     * @param candidates indices of the loops.
+     * @return connected components of the candidates.
+     */
+    List<BitSet> split(final BitSet candidates) {
+        List<BitSet> ret = new ArrayList<>();
+        BitSet remaining = (BitSet) candidates.clone();
+        while (!remaining.isEmpty()) {
+            BitSet component = new BitSet();
+            BitSet frontier = new BitSet();
+            frontier.set(remaining.nextSetBit(0));
+            while (!frontier.isEmpty()) {
+                component.or(frontier);
+                BitSet next = new BitSet();
+                for (int i = frontier.nextSetBit(0); i >= 0;
+                     i = frontier.nextSetBit(i + 1))
+                    next.or(this.touching[i]);
+                next.and(candidates);
+                next.andNot(component);
+                frontier = next;
+            }
+            remaining.andNot(component);
+            ret.add(component);
+        }
+        return ret;
+    }
+
+    /**
+     * Picks the loop touching the most other loops.
+     *
+     * @param candidates indices of the loops to pick from.
+     * @return index of the picked loop.
+     */
+    int pickLoop(final BitSet candidates) {
+        //The most touching loop removes the most candidates when taken.
+        int ret = -1;
+        int maxDegree = -1;
+        for (int i = candidates.nextSetBit(0); i >= 0;
+             i = candidates.nextSetBit(i + 1)) {
+            BitSet touching = (BitSet) this.touching[i].clone();
+            touching.and(candidates);
+            if (touching.cardinality() > maxDegree) {
+                maxDegree = touching.cardinality();
+                ret = i;
+            }
+        }
+        return ret;
+    }
+
+    int size() {
+        return this.touching.length;
+    }
+}
@@ -7,6 +7,40 @@ import sfg.*;
 import java.util.*;
 
 public class Tester {
+    /**
+     * Overall gain of the fixture SFG from n0 to n5.
+     */
+    private static final double FIXTURE_GAIN = 0.100620049;
+
+    private List<Node> createNodes(final int count) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            nodes.add(new Node("n" + i));
+        return nodes;
+    }
+
+    /**
+     * Creates the edges of the SFG shared by most tests, a chain of 8 nodes
+     * with 4 feedback edges.
+     */
+    private List<Edge> createFixtureEdges(final List<Node> nodes) {
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 0; i < 7; i++)
+            edges.add(new Edge(nodes.get(i), nodes.get(i + 1), i + 1));
+        edges.add(new Edge(nodes.get(7), nodes.get(1), 8));
+        edges.add(new Edge(nodes.get(2), nodes.get(1), 9));
+        edges.add(new Edge(nodes.get(4), nodes.get(3), 10));
+        edges.add(new Edge(nodes.get(7), nodes.get(6), 11));
+        return edges;
+    }
+
+    private Sfg createFixture(final List<Node> nodes) {
+        Sfg sfg = new Sfg();
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        List<Edge> edges = createFixtureEdges(nodes);
+        sfg.addEdges(edges.toArray(new Edge[edges.size()]));
+        return sfg;
+    }
 
     @Test
     public void testPathEquality() {
@@ -35,6 +69,29 @@ public class Tester {
         Assert.assertTrue(paths.size() == 2);
     }
 
+    @Test
+    public void testPathHashCollision() {
+        Node a = new Node("a");
+        Node b = new Node("b");
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            int hash = i;
+            edges.add(new Edge(a, b, 1) {
+                @Override
+                public int hashCode() {
+                    return hash;
+                }
+            });
+        }
+        //Same length and hash code, different edges.
+        Path path = new Path();
+        path.addEdges(edges.get(0), edges.get(3));
+        Path collidingPath = new Path();
+        collidingPath.addEdges(edges.get(1), edges.get(2));
+        Assert.assertTrue(path.hashCode() == collidingPath.hashCode());
+        Assert.assertFalse(path.equals(collidingPath));
+    }
+
     @Test
     public void testForwardPaths() {
         Sfg sfg = new Sfg();
@@ -53,6 +110,28 @@ public class Tester {
         Assert.assertTrue(metadata.getForwardPaths().size() == 2);
     }
 
+    @Test
+    public void testDeadEndBranches() {
+        Sfg sfg = new Sfg();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 12; i++)
+            nodes.add(new Node("n" + i));
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < 5; i++)
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i + 1), 2));
+        sfg.addEdges(new Edge(nodes.get(3), nodes.get(1), 2),
+                new Edge(nodes.get(1), nodes.get(6), 2),
+                new Edge(nodes.get(6), nodes.get(2), 2));
+        //Feedback branch which can only go back through visited nodes.
+        for (int i = 6; i < 12; i++)
+            for (int j = 6; j < 12; j++)
+                if (i != j)
+                    sfg.addEdges(new Edge(nodes.get(i), nodes.get(j), 2));
+        sfg.addEdges(new Edge(nodes.get(11), nodes.get(1), 2));
+        SfgMetadata metadata = sfg.solve(nodes.get(0), nodes.get(5));
+        Assert.assertTrue(metadata.getForwardPaths().size() == 2);
+    }
+
     @Test
     public void testLoops() {
         Sfg sfg = new Sfg();
@@ -69,6 +148,45 @@ public class Tester {
         Assert.assertTrue(metadata.getLoops().size() == testSize - 1);
     }
 
+    @Test
+    public void testLoopsFoundOnce() {
+        Sfg sfg = new Sfg();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            nodes.add(new Node("n" + i));
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < 5; i++)
+            for (int j = 0; j < 5; j++)
+                if (i != j)
+                    sfg.addEdges(new Edge(nodes.get(i), nodes.get(j), 2));
+        //Complete digraph of 5 nodes has sum C(5, k) * (k - 1)! loops.
+        SfgMetadata metadata = sfg.solve(nodes.get(0), nodes.get(4));
+        Assert.assertTrue(metadata.getLoops().size() == 84);
+    }
+
+    @Test
+    public void testComponentsDelta() {
+        Sfg sfg = new Sfg();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            nodes.add(new Node("n" + i));
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < 5; i++)
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i + 1), 2));
+        sfg.addEdges(new Edge(nodes.get(2), nodes.get(1), 3),
+                new Edge(nodes.get(4), nodes.get(3), 5));
+        SfgMetadata metadata = sfg.solve(nodes.get(0), nodes.get(5));
+        Assert.assertEquals((1 - 6) * (1 - 10),
+                metadata.getDelta().getGain(), 0.0001);
+        Assert.assertTrue(metadata.getDelta().getContainerList().size() == 2);
+        Assert.assertTrue(metadata.getDelta().getContainerList().get(1)
+                .size() == 1);
+        //Products across components are expanded once.
+        Assert.assertSame(metadata.getDelta().getContainerList(),
+                metadata.getDelta().getContainerList());
+        Assert.assertEquals(32.0 / 45, metadata.getResult(), 0.0001);
+    }
+
     @Test
     public void testAll() {
         Sfg sfg = new Sfg();
@@ -85,4 +203,757 @@ public class Tester {
         Assert.assertEquals(0.100620049,
                 sfg.solve(nodes.get(0), nodes.get(5)).getResult(), 0.0001);
     }
+
+    @Test
+    public void testIndependentSetsEngine() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        SfgMetadata groups = sfg.solve(nodes.get(0), nodes.get(5));
+        sfg.setDeltaEngine(DeltaEngine.INDEPENDENT_SETS);
+        SfgMetadata independentSets = sfg.solve(nodes.get(0), nodes.get(5));
+        Assert.assertEquals(groups.getDelta().getGain(),
+                independentSets.getDelta().getGain(), 0.0001);
+        Assert.assertEquals(FIXTURE_GAIN, independentSets.getResult(), 0.0001);
+    }
+
+    @Test
+    public void testLazyNonTouchingGroups() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        List<LoopGroupContainer> eager = sfg.solve(nodes.get(0), nodes.get(5))
+                .getDelta().getContainerList();
+        sfg.setDeltaEngine(DeltaEngine.LAZY_NON_TOUCHING_GROUPS);
+        SfgMetadata metadata = sfg.solve(nodes.get(0), nodes.get(5));
+        List<LoopGroupContainer> lazy = metadata.getDelta().getContainerList();
+        Assert.assertEquals(FIXTURE_GAIN, metadata.getResult(), 0.0001);
+        Assert.assertTrue(eager.size() == lazy.size());
+        for (int i = 0; i < eager.size(); i++) {
+            Assert.assertTrue(lazy.get(i).isLazy());
+            Assert.assertTrue(eager.get(i).size() == lazy.get(i).size());
+            Assert.assertTrue(lazy.get(i).stream().count() == lazy.get(i).size());
+            Assert.assertEquals(eager.get(i).getGain(), lazy.get(i).stream()
+                    .mapToDouble(LoopGroup::getGain).sum(), 0.0001);
+        }
+        //Groups hold copies, not the loops the solver keeps.
+        Path loop = lazy.get(0).iterator().next().getLoopList().get(0);
+        Assert.assertNotSame(loop, lazy.get(0).iterator().next()
+                .getLoopList().get(0));
+    }
+
+    @Test
+    public void testLazyGroupCounts() {
+        int testSize = 60;
+        Sfg sfg = new Sfg();
+        sfg.setDeltaEngine(DeltaEngine.LAZY_NON_TOUCHING_GROUPS);
+        List<Node> nodes = createNodes(testSize);
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < testSize; i++) {
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i), 0.5));
+            if (i > 0)
+                sfg.addEdges(new Edge(nodes.get(i - 1), nodes.get(i), 1));
+        }
+        //Self loops never touch, groups of 30 are C(60, 30), past 2^53.
+        LoopGroupContainer container = sfg.solve(nodes.get(0),
+                nodes.get(testSize - 1)).getDelta().getContainerList()
+                .get(29);
+        long expected = 1;
+        for (int i = 1; i <= 30; i++)
+            expected = expected * (30 + i) / i;
+        Assert.assertEquals(30, container.getDegree());
+        Assert.assertEquals(expected, container.count().getAsLong());
+        Assert.assertEquals(Integer.MAX_VALUE, container.size());
+    }
+
+    @Test
+    public void testSolveGain() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        Assert.assertEquals(FIXTURE_GAIN,
+                sfg.solveGain(nodes.get(0), nodes.get(5)), 0.0001);
+    }
+
+    @Test
+    public void testParallelSolve() {
+        Sfg sfg = new Sfg();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 6; i++)
+            nodes.add(new Node("n" + i));
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < 6; i++)
+            for (int j = 0; j < 6; j++)
+                if (i != j)
+                    sfg.addEdges(new Edge(nodes.get(i), nodes.get(j), 0.1 * (i + j)));
+        SfgMetadata sequential = sfg.solve(nodes.get(0), nodes.get(5));
+        sfg.setParallel(true);
+        SfgMetadata parallel = sfg.solve(nodes.get(0), nodes.get(5));
+        Assert.assertEquals(sequential.getResult(), parallel.getResult(), 0.0001);
+        Assert.assertEquals(sequential.getLoops(), parallel.getLoops());
+        Assert.assertTrue(sequential.getForwardPaths().size()
+                == parallel.getForwardPaths().size());
+    }
+
+    @Test
+    public void testParallelSolveLargeGraph() {
+        int testSize = 3000;
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < testSize; i++)
+            nodes.add(new Node("N" + i));
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 0; i < testSize - 1; i++)
+            edges.add(new Edge(nodes.get(i), nodes.get(i + 1), 1));
+        //Start forks a task per edge, skips double the paths behind them.
+        for (int i = 300; i < testSize; i += 300)
+            edges.add(new Edge(nodes.get(0), nodes.get(i), 1));
+        for (int i = 1000; i < testSize; i += 700)
+            edges.add(new Edge(nodes.get(i), nodes.get(i + 2), 1));
+        edges.add(new Edge(nodes.get(1500), nodes.get(1499), 0.5));
+        edges.add(new Edge(nodes.get(2500), nodes.get(2000), 0.5));
+        Sfg sequential = new Sfg();
+        sequential.addNodes(nodes.toArray(new Node[nodes.size()]));
+        sequential.addEdges(edges.toArray(new Edge[edges.size()]));
+        SfgMetadata expected = sequential.solve(nodes.get(0),
+                nodes.get(testSize - 1));
+        Set<List<Node>> expectedPaths = new HashSet<>();
+        for (Path path : expected.getForwardPaths())
+            expectedPaths.add(path.getNodeList());
+        for (int i = 0; i < 5; i++) {
+            Sfg parallel = new Sfg();
+            parallel.setParallel(true);
+            parallel.addNodes(nodes.toArray(new Node[nodes.size()]));
+            parallel.addEdges(edges.toArray(new Edge[edges.size()]));
+            SfgMetadata actual = parallel.solve(nodes.get(0),
+                    nodes.get(testSize - 1));
+            Set<List<Node>> actualPaths = new HashSet<>();
+            for (Path path : actual.getForwardPaths())
+                actualPaths.add(path.getNodeList());
+            Assert.assertEquals(expectedPaths, actualPaths);
+            Assert.assertEquals(expected.getLoops().size(),
+                    actual.getLoops().size());
+            Assert.assertEquals(expected.getResult(), actual.getResult(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testParallelLoops() {
+        int testSize = 600;
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < testSize; i++)
+            nodes.add(new Node("N" + i));
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 0; i < testSize - 1; i++)
+            edges.add(new Edge(nodes.get(i), nodes.get(i + 1), 0.5));
+        //Small loops spread over the chunks, with single nodes in between.
+        for (int i = 10; i < testSize - 10; i += 7)
+            edges.add(new Edge(nodes.get(i), nodes.get(i - 3), 0.5));
+        for (int i = 5; i < testSize; i += 50)
+            edges.add(new Edge(nodes.get(i), nodes.get(i), 0.5));
+        //A dense component whose loops are searched from several nodes.
+        for (int i = testSize - 6; i < testSize; i++)
+            for (int j = testSize - 6; j < testSize; j++)
+                if (i != j && j != i + 1)
+                    edges.add(new Edge(nodes.get(i), nodes.get(j), 0.1));
+        Sfg sequential = new Sfg();
+        Sfg parallel = new Sfg();
+        parallel.setParallel(true);
+        for (Sfg sfg : new Sfg[]{sequential, parallel}) {
+            sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+            sfg.addEdges(edges.toArray(new Edge[edges.size()]));
+        }
+        SfgMetadata expected = sequential.solve(nodes.get(0),
+                nodes.get(testSize - 1));
+        SfgMetadata actual = parallel.solve(nodes.get(0),
+                nodes.get(testSize - 1));
+        Assert.assertEquals(expected.getLoops(), actual.getLoops());
+        Assert.assertEquals(expected.getResult(), actual.getResult(), 1e-9);
+    }
+
+    @Test
+    public void testParallelDelta() {
+        int ringSize = 12;
+        List<Node> nodes = createNodes(ringSize + 2);
+        List<Edge> edges = new ArrayList<>();
+        //A ring both ways has a loop per neighbour pair and two around it,
+        //enough for the group search to fork.
+        for (int i = 0; i < ringSize; i++) {
+            int next = (i + 1) % ringSize;
+            edges.add(new Edge(nodes.get(i), nodes.get(next), 0.3 + 0.01 * i));
+            edges.add(new Edge(nodes.get(next), nodes.get(i), 0.2 - 0.01 * i));
+        }
+        edges.add(new Edge(nodes.get(ringSize), nodes.get(0), 1));
+        edges.add(new Edge(nodes.get(ringSize / 2), nodes.get(ringSize + 1), 1));
+        Sfg sequential = new Sfg();
+        Sfg parallel = new Sfg();
+        parallel.setParallel(true);
+        for (Sfg sfg : new Sfg[]{sequential, parallel}) {
+            sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+            sfg.addEdges(edges.toArray(new Edge[edges.size()]));
+        }
+        SfgMetadata expected = sequential.solve(nodes.get(ringSize),
+                nodes.get(ringSize + 1));
+        SfgMetadata actual = parallel.solve(nodes.get(ringSize),
+                nodes.get(ringSize + 1));
+        Assert.assertEquals(ringSize + 2, expected.getLoops().size());
+        List<LoopGroupContainer> expectedContainers = expected.getDelta()
+                .getContainerList();
+        List<LoopGroupContainer> actualContainers = actual.getDelta()
+                .getContainerList();
+        Assert.assertEquals(ringSize / 2, expectedContainers.size());
+        Assert.assertEquals(expectedContainers.size(), actualContainers.size());
+        for (int i = 0; i < expectedContainers.size(); i++) {
+            List<LoopGroup> expectedGroups = expectedContainers.get(i)
+                    .getGroupList();
+            List<LoopGroup> actualGroups = actualContainers.get(i)
+                    .getGroupList();
+            //Forked subtrees are merged back in sequential order.
+            Assert.assertEquals(expectedGroups.size(), actualGroups.size());
+            for (int j = 0; j < expectedGroups.size(); j++)
+                Assert.assertEquals(expectedGroups.get(j).getLoopList(),
+                        actualGroups.get(j).getLoopList());
+            Assert.assertEquals(expectedContainers.get(i).getGain(),
+                    actualContainers.get(i).getGain(), 1e-12);
+        }
+        Assert.assertEquals(expected.getResult(), actual.getResult(), 1e-12);
+    }
+
+    @Test
+    public void testCompiledGraph() {
+        Node in = new Node("in"), a = new Node("a"), out = new Node("out"),
+                isolated = new Node("isolated");
+        Sfg sfg = new Sfg();
+        //Indices follow insertion, not the order signals flow in.
+        sfg.addNodes(out, isolated, a, in);
+        sfg.addEdges(new Edge(a, a, 0.5), new Edge(in, a, 2),
+                new Edge(a, out, 3), new Edge(a, out, 2));
+        //A duplicate edge multiplies into the first, 2 * 3 * 2 / (1 - 0.5).
+        SfgMetadata metadata = sfg.solve(in, out);
+        Assert.assertEquals(1, metadata.getForwardPaths().size());
+        Assert.assertEquals(1, metadata.getLoops().size());
+        Assert.assertEquals(24, metadata.getResult(), 1e-12);
+        Assert.assertEquals(24, sfg.solveGain(in, out), 1e-12);
+        Assert.assertEquals(24, sfg.solveLinear(in, out), 1e-12);
+        Assert.assertEquals(0, sfg.solveGain(isolated, out), 1e-12);
+    }
+
+    @Test
+    public void testLongChain() {
+        int testSize = 9000;
+        Sfg sfg = new Sfg();
+        List<Node> nodes = createNodes(testSize);
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < testSize - 1; i++)
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i + 1), 1));
+        //A short loop and one through every node, 1 / (1 - 0.5 - 0.25).
+        sfg.addEdges(new Edge(nodes.get(1), nodes.get(0), 0.5),
+                new Edge(nodes.get(testSize - 1), nodes.get(0), 0.25));
+        //Depth of the graph must not bound any of the solvers.
+        Node start = nodes.get(0);
+        Node end = nodes.get(testSize - 1);
+        Assert.assertEquals(4, sfg.solveLinear(start, end), 1e-9);
+        Assert.assertEquals(4, sfg.solveByElimination(start, end), 1e-9);
+        Assert.assertNotNull(sfg.preflight(start, end).getStrategy());
+        for (SolveStrategy strategy : SolveStrategy.values())
+            Assert.assertEquals(4, sfg.solveGain(start, end, strategy), 1e-9);
+        SfgMetadata metadata = sfg.solve(start, end);
+        Assert.assertEquals(2, metadata.getLoops().size());
+        Assert.assertEquals(4, metadata.getResult(), 1e-9);
+    }
+
+    @Test
+    public void testSolveLinear() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        sfg.setCrossCheck(true);
+        Assert.assertEquals(FIXTURE_GAIN,
+                sfg.solveLinear(nodes.get(0), nodes.get(5)), 0.0001);
+        for (Node start : nodes)
+            for (Node end : nodes)
+                sfg.solveLinear(start, end);
+    }
+
+    @Test
+    public void testSolveByElimination() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        //A self loop the elimination has to fold into its node.
+        sfg.addEdges(new Edge(nodes.get(3), nodes.get(3), 0.5));
+        sfg.setCrossCheck(true);
+        for (Node start : nodes)
+            for (Node end : nodes)
+                sfg.solveByElimination(start, end);
+    }
+
+    @Test
+    public void testPreReduction() {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 12; i++)
+            nodes.add(new Node("n" + i));
+        Sfg full = new Sfg();
+        Sfg reduced = new Sfg();
+        reduced.setPreReduction(true);
+        for (Sfg sfg : new Sfg[]{full, reduced}) {
+            sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+            for (int i = 0; i < 11; i++)
+                sfg.addEdges(new Edge(nodes.get(i), nodes.get(i + 1), i + 1));
+            sfg.addEdges(new Edge(nodes.get(9), nodes.get(2), -0.5),
+                    new Edge(nodes.get(6), nodes.get(4), 0.25),
+                    new Edge(nodes.get(2), nodes.get(7), 3));
+        }
+        SfgMetadata expected = full.solve(nodes.get(0), nodes.get(11));
+        SfgMetadata actual = reduced.solve(nodes.get(0), nodes.get(11));
+        Assert.assertEquals(expected.getResult(), actual.getResult(), 1e-9);
+        Assert.assertEquals(expected.getLoops().size(),
+                actual.getLoops().size());
+        Assert.assertEquals(expected.getForwardPaths().size(),
+                actual.getForwardPaths().size());
+        Set<List<Node>> expectedPaths = new HashSet<>();
+        for (Path path : expected.getForwardPaths())
+            expectedPaths.add(path.getNodeList());
+        for (Path path : actual.getForwardPaths())
+            Assert.assertTrue(expectedPaths.contains(path.getNodeList()));
+    }
+
+    @Test
+    public void testPreflight() {
+        Sfg sfg = new Sfg();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 7; i++)
+            nodes.add(new Node("n" + i));
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < 7; i++)
+            for (int j = 0; j < 7; j++)
+                if (i != j)
+                    sfg.addEdges(new Edge(nodes.get(i), nodes.get(j),
+                            0.01 * (i + 1) - 0.005 * j));
+        SfgStatistics statistics = sfg.preflight(nodes.get(0), nodes.get(6));
+        Assert.assertEquals(7, statistics.getNodeCount());
+        Assert.assertEquals(42, statistics.getEdgeCount());
+        Assert.assertArrayEquals(new int[]{7}, statistics.getComponentSizes());
+        Assert.assertEquals(36, statistics.getCyclomaticNumber());
+        //2365 loops and 326 forward paths.
+        Assert.assertTrue(statistics.getEstimatedLoops() > 500);
+        Assert.assertTrue(statistics.getEstimatedForwardPaths() > 50);
+        Assert.assertEquals(SolveStrategy.ALGEBRAIC, statistics.getStrategy());
+        Assert.assertEquals(sfg.solveGain(nodes.get(0), nodes.get(6)),
+                sfg.solveGain(nodes.get(0), nodes.get(6),
+                        SolveStrategy.AUTOMATIC), 1e-9);
+        Assert.assertEquals(sfg.solveGain(nodes.get(0), nodes.get(6)),
+                sfg.solveGain(nodes.get(0), nodes.get(6),
+                        SolveStrategy.REDUCED_MASON), 1e-9);
+    }
+
+    @Test
+    public void testPreflightNonTouchingLoops() {
+        int testSize = 40;
+        Sfg sfg = new Sfg();
+        List<Node> nodes = createNodes(testSize);
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        for (int i = 0; i < testSize; i++)
+            sfg.addEdges(new Edge(nodes.get(i), nodes.get(i), 0.5),
+                    new Edge(nodes.get(i), nodes.get((i + 1) % testSize),
+                            0.9));
+        //Few loops, but the 40 self loops make 2^40 non touching groups.
+        SfgStatistics statistics = sfg.preflight(nodes.get(0),
+                nodes.get(testSize - 1));
+        Assert.assertTrue(statistics.getEstimatedLoops() < 100);
+        Assert.assertTrue(statistics.getEstimatedGroups() > 1e6);
+        Assert.assertEquals(SolveStrategy.ALGEBRAIC, statistics.getStrategy());
+    }
+
+    @Test
+    public void testGainChange() {
+        List<Node> nodes = createNodes(8);
+        for (DeltaEngine engine : DeltaEngine.values()) {
+            List<Edge> edges = createFixtureEdges(nodes);
+            Sfg sfg = new Sfg();
+            sfg.setDeltaEngine(engine);
+            sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+            sfg.addEdges(edges.toArray(new Edge[edges.size()]));
+            SfgMetadata before = sfg.solve(nodes.get(0), nodes.get(5));
+            for (int i = 0; i < edges.size(); i++)
+                edges.get(i).setGain(0.5 - 0.1 * i);
+            Sfg fresh = new Sfg();
+            fresh.addNodes(nodes.toArray(new Node[nodes.size()]));
+            fresh.addEdges(edges.toArray(new Edge[edges.size()]));
+            double expected = fresh.solve(nodes.get(0), nodes.get(5))
+                    .getResult();
+            SfgMetadata after = sfg.solve(nodes.get(0), nodes.get(5));
+            Assert.assertEquals(expected, after.getResult(), 1e-9);
+            Assert.assertEquals(expected, sfg.solveGain(nodes.get(0),
+                    nodes.get(5)), 1e-9);
+            Assert.assertEquals(before.getLoops().size(),
+                    after.getLoops().size());
+        }
+    }
+
+    @Test
+    public void testAlternatingStrategies() {
+        List<Node> nodes = createNodes(8);
+        List<Edge> edges = createFixtureEdges(nodes);
+        Sfg sfg = new Sfg();
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        sfg.addEdges(edges.toArray(new Edge[edges.size()]));
+        //Solvers of the full and reduced SFG are both kept and refreshed.
+        SolveStrategy[] strategies = {SolveStrategy.MASON,
+                SolveStrategy.REDUCED_MASON, SolveStrategy.AUTOMATIC};
+        for (int i = 0; i < 9; i++) {
+            edges.get(i % edges.size()).setGain(0.3 + 0.1 * i);
+            double expected = sfg.solveLinear(nodes.get(0), nodes.get(5));
+            Assert.assertEquals(expected, sfg.solveGain(nodes.get(0),
+                    nodes.get(5), strategies[i % strategies.length]), 1e-9);
+        }
+    }
+
+    @Test
+    public void testGainChangeSharedDeltas() {
+        Node in = new Node("in"), a = new Node("a"), b = new Node("b"),
+                c = new Node("c"), x = new Node("x"), y = new Node("y"),
+                out = new Node("out"), d = new Node("d"), e = new Node("e");
+        List<Node> nodes = Arrays.asList(in, a, b, c, x, y, out, d, e);
+        //Both paths touch a and b but leave loop x-y and loop d-e alone, so
+        //they share the cached cofactors of both components.
+        List<Edge> edges = Arrays.asList(new Edge(in, a, 1),
+                new Edge(a, b, 2), new Edge(a, c, 3), new Edge(c, b, 4),
+                new Edge(b, out, 5), new Edge(b, a, -0.1),
+                new Edge(a, x, 0.2), new Edge(x, a, 0.3), new Edge(x, y, 0.4),
+                new Edge(y, x, 0.5), new Edge(out, d, 1), new Edge(d, e, 0.6),
+                new Edge(e, d, 0.7));
+        Sfg sfg = new Sfg();
+        sfg.addNodes(nodes.toArray(new Node[nodes.size()]));
+        sfg.addEdges(edges.toArray(new Edge[edges.size()]));
+        Assert.assertEquals(2, sfg.solve(in, out).getForwardPaths().size());
+        //Solves after a gain change refresh the kept cofactors, twice so a
+        //stale cache would show.
+        for (int change = 1; change <= 2; change++) {
+            for (int i = 0; i < edges.size(); i++)
+                edges.get(i).setGain(0.9 - 0.13 * change * i);
+            Sfg fresh = new Sfg();
+            fresh.addNodes(nodes.toArray(new Node[nodes.size()]));
+            fresh.addEdges(edges.toArray(new Edge[edges.size()]));
+            SfgMetadata expected = fresh.solve(in, out);
+            SfgMetadata actual = sfg.solve(in, out);
+            Map<List<Node>, Double> expectedGains = new HashMap<>();
+            for (Path path : expected.getForwardPaths())
+                expectedGains.put(path.getNodeList(), expected
+                        .getForwardPathsDeltas().get(path).getGain());
+            double sharedGain = (1 - edges.get(8).getGain() * edges.get(9)
+                    .getGain()) * (1 - edges.get(11).getGain() * edges.get(12)
+                    .getGain());
+            for (Path path : actual.getForwardPaths()) {
+                double gain = actual.getForwardPathsDeltas().get(path)
+                        .getGain();
+                Assert.assertEquals(expectedGains.get(path.getNodeList()),
+                        gain, 1e-12);
+                Assert.assertEquals(sharedGain, gain, 1e-12);
+            }
+            Assert.assertEquals(expected.getResult(), actual.getResult(),
+                    1e-12);
+        }
+    }
+
+    @Test
+    public void testEdgeRemoval() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        Assert.assertEquals(4, sfg.solve(nodes.get(0), nodes.get(5))
+                .getLoops().size());
+        sfg.removeEdges(new Edge(nodes.get(7), nodes.get(1), 0));
+        sfg.addEdges(new Edge(nodes.get(5), nodes.get(2), 0.5),
+                new Edge(nodes.get(0), nodes.get(4), 2));
+        SfgMetadata metadata = sfg.solve(nodes.get(0), nodes.get(5));
+        Assert.assertEquals(4, metadata.getLoops().size());
+        Assert.assertEquals(2, metadata.getForwardPaths().size());
+        sfg.removeNodes(nodes.get(3));
+        metadata = sfg.solve(nodes.get(0), nodes.get(5));
+        Assert.assertEquals(2, metadata.getLoops().size());
+        Assert.assertEquals(1, metadata.getForwardPaths().size());
+        //Loops 1-2 and 6-7 don't touch path 0-4-5, so its delta cancels.
+        Assert.assertEquals(10, metadata.getResult(), 1e-9);
+    }
+
+    @Test
+    public void testResolveChangedTopology() {
+        int testSize = 30;
+        List<Node> nodes = createNodes(testSize);
+        List<Node> present = new ArrayList<>(nodes.subList(0, 8));
+        List<Edge> edges = createFixtureEdges(nodes);
+        Sfg sfg = createFixture(present);
+        Assert.assertEquals(FIXTURE_GAIN,
+                sfg.solve(nodes.get(0), nodes.get(5)).getResult(), 0.0001);
+        //Grows the same SFG well past the capacity its searches were sized
+        //for on the first solve.
+        List<Edge> added = new ArrayList<>();
+        added.add(new Edge(nodes.get(5), nodes.get(8), 1));
+        for (int i = 8; i < testSize - 1; i++)
+            added.add(new Edge(nodes.get(i), nodes.get(i + 1), 0.9));
+        for (int i = 10; i < testSize; i += 5)
+            added.add(new Edge(nodes.get(i), nodes.get(i - 2), 0.3));
+        for (int i = 9; i < testSize; i += 7)
+            added.add(new Edge(nodes.get(i), nodes.get(i), 0.2));
+        added.add(new Edge(nodes.get(testSize - 1), nodes.get(1), 0.01));
+        present.addAll(nodes.subList(8, testSize));
+        edges.addAll(added);
+        sfg.addNodes(nodes.subList(8, testSize).toArray(
+                new Node[testSize - 8]));
+        sfg.addEdges(added.toArray(new Edge[added.size()]));
+        int[][] pairs = {{0, 5}, {0, testSize - 1}, {8, 25}, {2, 1}};
+        for (int[] pair : pairs)
+            assertSameSolve(sfg, present, edges, nodes.get(pair[0]),
+                    nodes.get(pair[1]));
+        //Then shrinks it and alternates start and end nodes, so every
+        //search restarts on stamps left by a different topology.
+        sfg.removeNodes(nodes.get(3), nodes.get(20));
+        present.removeAll(Arrays.asList(nodes.get(3), nodes.get(20)));
+        edges.removeIf(edge -> !present.contains(edge.getSrc())
+                || !present.contains(edge.getDest()));
+        pairs = new int[][]{{0, 5}, {0, 2}, {8, 19}, {21, testSize - 1},
+                {21, 1}, {4, 6}};
+        for (int i = 0; i < 50; i++)
+            for (int[] pair : pairs)
+                assertSameSolve(sfg, present, edges, nodes.get(pair[0]),
+                        nodes.get(pair[1]));
+    }
+
+    private void assertSameSolve(final Sfg sfg, final List<Node> nodes,
+                                 final List<Edge> edges, final Node start,
+                                 final Node end) {
+        Sfg fresh = new Sfg();
+        fresh.addNodes(nodes.toArray(new Node[nodes.size()]));
+        fresh.addEdges(edges.toArray(new Edge[edges.size()]));
+        SfgMetadata expected = fresh.solve(start, end);
+        SfgMetadata actual = sfg.solve(start, end);
+        Assert.assertEquals(expected.getForwardPaths().size(),
+                actual.getForwardPaths().size());
+        Assert.assertEquals(getLoopCycles(expected.getLoops()),
+                getLoopCycles(actual.getLoops()));
+        Assert.assertEquals(expected.getResult(), actual.getResult(), 1e-9);
+        Assert.assertEquals(expected.getResult(), sfg.solveGain(start, end),
+                1e-9);
+    }
+
+    /**
+     * Gets the node names of every loop rotated to start at the least one,
+     * node ids and so where loops start depend on the node map history.
+     */
+    private Set<List<String>> getLoopCycles(final List<Path> loops) {
+        Set<List<String>> ret = new HashSet<>();
+        for (Path loop : loops) {
+            List<String> names = new ArrayList<>();
+            for (Node node : loop.getNodeList())
+                names.add(node.getLabel());
+            //Loops may list their first node again at the end.
+            if (names.size() > 1 && names.get(0).equals(names.get(names
+                    .size() - 1)))
+                names.remove(names.size() - 1);
+            Collections.rotate(names, -names.indexOf(Collections.min(names)));
+            ret.add(names);
+        }
+        Assert.assertEquals(loops.size(), ret.size());
+        return ret;
+    }
+
+    @Test
+    public void testGainExpression() {
+        List<Node> nodes = createNodes(8);
+        Sfg sfg = createFixture(nodes);
+        GainExpression expression = sfg.compileGain(nodes.get(0), nodes.get(5));
+        Assert.assertEquals(FIXTURE_GAIN, expression.evaluate(), 0.0001);
+        List<Edge> edges = expression.getEdges();
+        int count = 3;
+        double[] gains = new double[edges.size() * count];
+        for (int i = 0; i < edges.size(); i++)
+            for (int j = 0; j < count; j++)
+                gains[i * count + j] = edges.get(i).getGain() / (j + 1);
+        double[] results = expression.evaluate(gains, count);
+        for (int j = 0; j < count; j++) {
+            for (int i = 0; i < edges.size(); i++)
+                edges.get(i).setGain(gains[i * count + j]);
+            Assert.assertEquals(sfg.solve(nodes.get(0), nodes.get(5))
+                    .getResult(), results[j], 1e-9);
+        }
+    }
+
+    @Test
+    public void testSweep() {
+        Sfg sfg = new Sfg();
+        Node in = new Node("in");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node out = new Node("out");
+        sfg.addNodes(in, a, b, out);
+        Edge integrator = new Edge(a, b, 1);
+        //1 / s closed in a unit negative feedback loop gives 1 / (s + 1).
+        integrator.setTransferFunction(new RationalFunction(new double[]{1},
+                new double[]{0, 1}));
+        sfg.addEdges(new Edge(in, a, 1), integrator, new Edge(b, a, -1),
+                new Edge(b, out, 1));
+        double[] frequencies = {0.1, 1, 10};
+        double[] response = sfg.sweep(in, out, frequencies);
+        for (int i = 0; i < frequencies.length; i++) {
+            double w = frequencies[i];
+            Assert.assertEquals(1 / (1 + w * w), response[2 * i], 1e-9);
+            Assert.assertEquals(-w / (1 + w * w), response[2 * i + 1], 1e-9);
+        }
+    }
+
+    @Test
+    public void testSolveSymbolic() {
+        Sfg sfg = new Sfg();
+        Node in = new Node("in");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node c = new Node("c");
+        Node out = new Node("out");
+        sfg.addNodes(in, a, b, c, out);
+        Edge first = new Edge(a, b, 1);
+        first.setTransferFunction(new RationalFunction(new double[]{1},
+                new double[]{0, 1}));
+        Edge second = new Edge(b, c, 1);
+        second.setTransferFunction(new RationalFunction(new double[]{1},
+                new double[]{0, 1}));
+        sfg.addEdges(new Edge(in, a, 1), first, second, new Edge(b, a, -1),
+                new Edge(c, a, -1), new Edge(c, out, 1));
+        //Two integrators in feedback give 1 / (s^2 + s + 1).
+        RationalFunction gain = sfg.solveSymbolic(in, out);
+        Assert.assertArrayEquals(new double[]{1}, gain.getNumerator(), 1e-12);
+        Assert.assertArrayEquals(new double[]{1, 1, 1}, gain.getDenominator(),
+                1e-12);
+        //Long products are split, they must match the plain convolution.
+        Random random = new Random(7);
+        double[] x = new double[100];
+        double[] y = new double[70];
+        for (int i = 0; i < x.length; i++)
+            x[i] = random.nextDouble();
+        for (int i = 0; i < y.length; i++)
+            y[i] = random.nextDouble();
+        double[] expected = new double[x.length + y.length - 1];
+        for (int i = 0; i < x.length; i++)
+            for (int j = 0; j < y.length; j++)
+                expected[i + j] += x[i] * y[j];
+        RationalFunction product = new RationalFunction(x, new double[]{1})
+                .multiply(new RationalFunction(y, new double[]{1}));
+        Assert.assertArrayEquals(expected, product.getNumerator(), 1e-9);
+    }
+
+    @Test
+    public void testSolveParametric() {
+        Sfg sfg = new Sfg();
+        Node in = new Node("in");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node out = new Node("out");
+        sfg.addNodes(in, a, b, out);
+        Edge k = new Edge(a, b, 2);
+        sfg.addEdges(new Edge(in, a, 1), k, new Edge(b, a, -1),
+                new Edge(b, b, 0.5), new Edge(b, out, 3));
+        //K in a unit negative feedback loop next to a self loop of 0.5
+        //gives 3K / (0.5 + K).
+        RationalFunction gain = sfg.solveParametric(in, out, k);
+        Assert.assertArrayEquals(new double[]{0, 3}, gain.getNumerator(),
+                1e-12);
+        Assert.assertArrayEquals(new double[]{0.5, 1}, gain.getDenominator(),
+                1e-12);
+        double[] values = {-3, 0.25, 7};
+        double[] gains = gain.evaluate(values);
+        for (int i = 0; i < values.length; i++) {
+            k.setGain(values[i]);
+            Assert.assertEquals(sfg.solve(in, out).getResult(), gains[i],
+                    1e-9);
+        }
+    }
+
+    @Test
+    public void testSensitivities() {
+        Sfg sfg = new Sfg();
+        Node in = new Node("in");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node out = new Node("out");
+        sfg.addNodes(in, a, b, out);
+        Edge k = new Edge(a, b, 2);
+        Edge[] edges = {new Edge(in, a, 1), k, new Edge(b, a, -1),
+                new Edge(b, b, 0.5), new Edge(b, out, 3)};
+        sfg.addEdges(edges);
+        Map<Edge, Double> sensitivities = sfg.getSensitivities(in, out);
+        //The gain is 3K / (0.5 + K), its derivative by K is 1.5 / 2.5^2.
+        Assert.assertEquals(0.24, sensitivities.get(k), 1e-12);
+        double step = 1e-6;
+        for (Edge edge : edges) {
+            double gain = edge.getGain();
+            edge.setGain(gain + step);
+            double upper = sfg.solve(in, out).getResult();
+            edge.setGain(gain - step);
+            double lower = sfg.solve(in, out).getResult();
+            edge.setGain(gain);
+            Assert.assertEquals((upper - lower) / (2 * step),
+                    sensitivities.get(edge), 1e-6);
+        }
+    }
+
+    @Test
+    public void testToleranceAnalysis() {
+        Sfg sfg = new Sfg();
+        Node in = new Node("in");
+        Node a = new Node("a");
+        Node b = new Node("b");
+        Node out = new Node("out");
+        sfg.addNodes(in, a, b, out);
+        Edge k = new Edge(a, b, 2);
+        Edge output = new Edge(b, out, 3);
+        sfg.addEdges(new Edge(in, a, 1), k, new Edge(b, a, -1),
+                new Edge(b, b, 0.5), output);
+        Map<Edge, GainDistribution> distributions = new HashMap<>();
+        distributions.put(output, GainDistribution.uniform(2, 4));
+        int samples = 10000;
+        ToleranceReport report = sfg.analyzeTolerance(in, out, distributions,
+                samples, 1);
+        //The gain is 0.8 times the output gain.
+        Assert.assertEquals(samples, report.getSampleCount());
+        Assert.assertEquals(0, report.getFailureCount());
+        Assert.assertTrue(report.getMin() >= 1.6 && report.getMax() <= 3.2);
+        Assert.assertEquals(2.4, report.getMean(), 0.02);
+        Assert.assertEquals(2.4, report.getPercentile(50), 0.02);
+        int total = 0;
+        for (int count : report.getHistogram(10)) {
+            Assert.assertEquals(samples / 10, count, samples / 20);
+            total += count;
+        }
+        Assert.assertEquals(samples, total);
+        distributions.put(k, GainDistribution.normal(2, 0.1));
+        report = sfg.analyzeTolerance(in, out, distributions, samples, 1);
+        sfg.setParallel(true);
+        ToleranceReport parallel = sfg.analyzeTolerance(in, out,
+                distributions, samples, 1);
+        Assert.assertEquals(report.getMean(), parallel.getMean(), 0);
+        Assert.assertEquals(report.getPercentile(95),
+                parallel.getPercentile(95), 0);
+        //Chunks of nearby seeds must not draw the same streams.
+        Set<Double> first = new HashSet<>();
+        Set<Double> second = new HashSet<>();
+        distributions.remove(k);
+        distributions.put(output, random -> {
+            double gain = random.nextDouble();
+            synchronized (first) {
+                first.add(gain);
+            }
+            return gain;
+        });
+        sfg.analyzeTolerance(in, out, distributions, 2 * samples, 0);
+        distributions.put(output, random -> {
+            double gain = random.nextDouble();
+            synchronized (second) {
+                second.add(gain);
+            }
+            return gain;
+        });
+        sfg.analyzeTolerance(in, out, distributions, samples, 4096);
+        second.retainAll(first);
+        Assert.assertTrue(second.isEmpty());
+        for (int count : new int[]{0, -1})
+            try {
+                sfg.analyzeTolerance(in, out, distributions, count, 1);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                //Expected.
+            }
+    }
 }